@@ -0,0 +1,206 @@
+
+/**
+ * 相册文件夹树的磁盘快照，冷启动时先展示快照，再由 {@link GalleryViewModel} 在后台与 MediaStore 对齐
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int    magic
+ * int    format version
+ * string MediaStore version at snapshot time ("" below api 29)
+ * int    payload length
+ * long   CRC32 of payload
+ * byte[] payload: the {@link MediaFolderBean} tree in pre-order
+ * </pre>
+ * A file with another magic / format version / MediaStore version, a bad length or a bad checksum is
+ * deleted and treated as missing, the caller then falls back to a full scan.
+ */
+public final class AlbumFolderSnapshot {
+
+    private static final String FILE_NAME = "album_folders.snapshot";
+
+    private static final int MAGIC = 0x47465331; // "GFS1"
+    /**
+     * Bump when the payload layout changes
+     */
+    private static final int FORMAT_VERSION = 3;
+
+    private static final int FLAG_HAS_MEDIA_IN_ROOT = 1;
+    private static final int FLAG_VIRTUAL = 1 << 1;
+
+    /**
+     * Guard against a corrupted child count that still passes the checksum (eg: written by a buggy build)
+     */
+    private static final int MAX_CHILD_COUNT = 100_000;
+    private static final int MAX_DEPTH = 64;
+
+    private final File file;
+
+    public AlbumFolderSnapshot(Context context) {
+        this.file = new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Read the snapshot
+     *
+     * @param mediaStoreVersion current {@link MediaStore#getVersion(Context)}, "" below api 29
+     * @return the ALL_RESOURCE folder, null if missing / outdated / corrupted
+     */
+    @Nullable
+    public MediaFolderBean read(@NonNull String mediaStoreVersion) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return discard();
+            }
+            if (!mediaStoreVersion.equals(readString(buffer))) {
+                // 媒体库被重建，快照中的 id / uri 已失效
+                return discard();
+            }
+            int payloadLength = buffer.getInt();
+            long checksum = buffer.getLong();
+            if (payloadLength < 0 || payloadLength != buffer.remaining()) {
+                return discard();
+            }
+
+            CRC32 crc32 = new CRC32();
+            crc32.update(buffer.duplicate());
+            if (crc32.getValue() != checksum) {
+                return discard();
+            }
+            return readFolder(buffer, 0);
+        } catch (IOException | RuntimeException e) {
+            // BufferUnderflowException / IllegalArgumentException ... from a truncated or corrupted file
+            e.printStackTrace();
+            return discard();
+        }
+    }
+
+    /**
+     * Write the snapshot, replaces the old file atomically
+     *
+     * @param allResourceFolder the folder built by wrapAllResource
+     */
+    public void write(@NonNull MediaFolderBean allResourceFolder, @NonNull String mediaStoreVersion) {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        File tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try {
+            DataOutputStream payload = new DataOutputStream(payloadBytes);
+            writeFolder(payload, allResourceFolder);
+            payload.flush();
+
+            byte[] bytes = payloadBytes.toByteArray();
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, mediaStoreVersion);
+                out.writeInt(bytes.length);
+                out.writeLong(crc32.getValue());
+                out.write(bytes);
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+        }
+    }
+
+    public void delete() {
+        file.delete();
+    }
+
+    private MediaFolderBean discard() {
+        file.delete();
+        return null;
+    }
+
+    private static void writeFolder(DataOutputStream out, MediaFolderBean folder) throws IOException {
+        int flags = 0;
+        if (folder.hasMediaInRoot) flags |= FLAG_HAS_MEDIA_IN_ROOT;
+        if (folder.isVirtual) flags |= FLAG_VIRTUAL;
+        out.writeByte(flags);
+
+        writeString(out, folder.bucketId);
+        writeString(out, folder.bucketName);
+        writeString(out, folder.path);
+        writeString(out, folder.parentPath);
+        writeString(out, folder.mimeType);
+        writeString(out, folder.coverUri == null ? null : folder.coverUri.toString());
+        out.writeInt(folder.itemCount);
+        out.writeLong(folder.latestDateTaken);
+        out.writeByte(folder.uiRootFolderType == null ? -1 : folder.uiRootFolderType.ordinal());
+
+        int childCount = folder.children == null ? 0 : folder.children.size();
+        out.writeInt(childCount);
+        for (int i = 0; i < childCount; i++) {
+            writeFolder(out, folder.children.get(i));
+        }
+    }
+
+    private static MediaFolderBean readFolder(ByteBuffer buffer, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("folder tree too deep");
+        }
+        MediaFolderBean folder = new MediaFolderBean();
+        int flags = buffer.get();
+        folder.hasMediaInRoot = (flags & FLAG_HAS_MEDIA_IN_ROOT) != 0;
+        folder.isVirtual = (flags & FLAG_VIRTUAL) != 0;
+
+        folder.bucketId = readString(buffer);
+        folder.bucketName = readString(buffer);
+        folder.path = readString(buffer);
+        folder.parentPath = readString(buffer);
+        folder.mimeType = readString(buffer);
+        String coverUri = readString(buffer);
+        folder.coverUri = coverUri == null ? null : Uri.parse(coverUri);
+        folder.itemCount = buffer.getInt();
+        folder.latestDateTaken = buffer.getLong();
+        int rootType = buffer.get();
+        MediaUiRootFolderType[] rootTypes = MediaUiRootFolderType.values();
+        folder.uiRootFolderType = rootType >= 0 && rootType < rootTypes.length ? rootTypes[rootType] : null;
+
+        int childCount = buffer.getInt();
+        if (childCount < 0 || childCount > MAX_CHILD_COUNT) {
+            throw new IllegalArgumentException("bad child count " + childCount);
+        }
+        folder.children = new ArrayList<>(childCount);
+        for (int i = 0; i < childCount; i++) {
+            folder.children.add(readFolder(buffer, depth + 1));
+        }
+        return folder;
+    }
+
+    /**
+     * length (-1 = null) + UTF-8 bytes
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -2,18 +2,23 @@ package com.panasonic.jp.lumixlab.controller.fragment.gallery.abs;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewbinding.ViewBinding;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 
 public abstract class CommonAdapter<T, VB extends ViewBinding>
@@ -26,8 +31,6 @@ public abstract class CommonAdapter<T, VB extends ViewBinding>
      */
     protected List<T> dataList = new ArrayList<>();
 
-    protected BindingViewHolder currentHolder;
-
     public CommonAdapter() {
     }
 
@@ -38,40 +41,140 @@ public abstract class CommonAdapter<T, VB extends ViewBinding>
     @NonNull
     @Override
     public BindingViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        VB binding = onCreateBinding(LayoutInflater.from(parent.getContext()), parent, viewType);
+        VB binding = preInflater != null ? preInflater.obtain(preInflateKey(viewType)) : null;
+        if (binding == null) {
+            binding = onCreateBinding(LayoutInflater.from(parent.getContext()), parent, viewType);
+        }
         context = parent.getContext();
-        return new BindingViewHolder(binding, viewType);
-    }
-
-    @Override
-    public void onBindViewHolder(@NonNull BindingViewHolder holder, int position) {
-        T item = dataList.get(position);
-        currentHolder = holder;
-
-        onBind(holder.binding, item, position, holder.viewType);
+        BindingViewHolder holder = new BindingViewHolder(binding, viewType);
 
-        // item click
+        // 监听只在创建时设置一次，点击时再按 getBindingAdapterPosition 取 item（删除/插入后不会错位）
+        // 不捕获创建它的 adapter：共享 RecycledViewPool 时 holder 可能被另一个 adapter 复用，点击时取当前绑定的 adapter
         holder.itemView.setOnClickListener(v -> {
-            if (onItemClickListener != null) {
-                onItemClickListener.onItemClick(item, position, v);
+            CommonAdapter<T, VB> adapter = boundAdapterOf(holder);
+            if (adapter != null) {
+                adapter.dispatchItemClick(holder, v);
             }
         });
-
         holder.itemView.setOnLongClickListener(v -> {
-            if (onItemLongClickListener != null) {
-                onItemLongClickListener.onItemLongClick(item, position, v);
+            CommonAdapter<T, VB> adapter = boundAdapterOf(holder);
+            if (adapter != null) {
+                adapter.dispatchItemLongClick(holder, v);
             }
             return true;
         });
+        holder.childClickListener = v -> {
+            CommonAdapter<T, VB> adapter = boundAdapterOf(holder);
+            if (adapter != null) {
+                adapter.dispatchItemChildClick(holder, v);
+            }
+        };
+        View[] childClickViews = onCreateChildClickViews(binding, viewType);
+        if (childClickViews != null) {
+            holder.bindChildClickListener(childClickViews);
+        }
+        return holder;
+    }
 
+    /**
+     * Child views of this view type dispatched to {@link OnItemChildClickListener}, called once per holder
+     *
+     * @return null: no child click
+     */
+    @Nullable
+    protected View[] onCreateChildClickViews(VB binding, int viewType) {
+        return null;
+    }
 
-        // item child click
-        for (View childClickView : holder.childClickViews) {
-            childClickView.setOnClickListener(v -> {
-                if (onItemChildClickListener != null) {
-                    onItemChildClickListener.onItemChildClick(item, position, v, v.getId());
-                }
-            });
+    @Override
+    public void onBindViewHolder(@NonNull BindingViewHolder holder, int position) {
+        T item = getItem(position);
+        onBind(holder.binding, item, position, holder.viewType);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull BindingViewHolder holder, int position, @NonNull List<Object> payloads) {
+        T item = payloads.isEmpty() ? null : getItem(position);
+        if (item == null) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        onBind(holder.binding, item, position, holder.viewType, payloads);
+    }
+
+    /**
+     * Adapter the holder is bound to at click time, not the one that created it
+     * (holders move between adapters sharing a RecycledViewPool)
+     *
+     * @return null if the holder is not bound
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static <T, VB extends ViewBinding> CommonAdapter<T, VB> boundAdapterOf(CommonAdapter<T, VB>.BindingViewHolder holder) {
+        RecyclerView.Adapter<? extends RecyclerView.ViewHolder> adapter = holder.getBindingAdapter();
+        return adapter instanceof CommonAdapter ? (CommonAdapter<T, VB>) adapter : null;
+    }
+
+    /**
+     * @return item of the holder at click time, null if the holder is no longer bound (eg: being removed)
+     */
+    @Nullable
+    private T getBoundItem(BindingViewHolder holder) {
+        int position = holder.getBindingAdapterPosition();
+        if (position == RecyclerView.NO_POSITION || position >= getItemCount()) {
+            return null;
+        }
+        return getItem(position);
+    }
+
+    /**
+     * Item at the adapter position for helpers outside the adapter (eg: a prefetcher), see {@link #peekItem}:
+     * never loads a page or moves the window of a {@link PagedCommonAdapter}
+     *
+     * @return null if out of range or not loaded yet
+     */
+    @Nullable
+    public T getItemAt(int position) {
+        if (position < 0 || position >= getItemCount()) {
+            return null;
+        }
+        return peekItem(position);
+    }
+
+    /**
+     * Item at the adapter position, overridden by {@link PagedCommonAdapter} (null = placeholder)
+     */
+    protected T getItem(int position) {
+        return dataList.get(position);
+    }
+
+    /**
+     * Item at the adapter position without side effects: {@link PagedCommonAdapter} returns only a loaded item
+     * and neither loads pages nor moves its window
+     */
+    @Nullable
+    protected T peekItem(int position) {
+        return getItem(position);
+    }
+
+    private void dispatchItemClick(BindingViewHolder holder, View v) {
+        T item = getBoundItem(holder);
+        if (item != null && onItemClickListener != null) {
+            onItemClickListener.onItemClick(item, holder.getBindingAdapterPosition(), v);
+        }
+    }
+
+    private void dispatchItemLongClick(BindingViewHolder holder, View v) {
+        T item = getBoundItem(holder);
+        if (item != null && onItemLongClickListener != null) {
+            onItemLongClickListener.onItemLongClick(item, holder.getBindingAdapterPosition(), v);
+        }
+    }
+
+    private void dispatchItemChildClick(BindingViewHolder holder, View v) {
+        T item = getBoundItem(holder);
+        if (item != null && onItemChildClickListener != null) {
+            onItemChildClickListener.onItemChildClick(item, holder.getBindingAdapterPosition(), v, v.getId());
         }
     }
 
@@ -79,18 +182,48 @@ public abstract class CommonAdapter<T, VB extends ViewBinding>
 
     protected abstract void onBind(VB binding, T item, int position, int viewType);
 
+    /**
+     * Partial bind, eg: only the selection state, without reloading the thumbnail
+     *
+     * @param payloads not empty, from notifyItemChanged(position, payload) / {@link #notifyItemChangedByKey}
+     *                 or DiffUtil.ItemCallback#getChangePayload; default: full {@link #onBind}
+     */
+    protected void onBind(VB binding, T item, int position, int viewType, @NonNull List<Object> payloads) {
+        onBind(binding, item, position, viewType);
+    }
+
     @Override
     public int getItemCount() {
         return dataList.size();
     }
 
+    /**
+     * Called by RecyclerView during layout and prefetch: reads through {@link #peekItem}, so a
+     * {@link PagedCommonAdapter} loads no page and keeps its window (a placeholder has no id either way)
+     */
+    @Override
+    public long getItemId(int position) {
+        if (itemKeyProvider == null) {
+            return RecyclerView.NO_ID;
+        }
+        T item = peekItem(position);
+        return item == null ? RecyclerView.NO_ID : itemKeyProvider.getItemKey(item);
+    }
+
     @Override
     public int getItemViewType(int position) {
         return super.getItemViewType(position);
     }
 
+    /**
+     * Replace the data, diffed in the background when {@link #setDiffCallback} is set
+     */
     @SuppressLint("NotifyDataSetChanged")
     public void setNewDataList(List<T> list) {
+        if (diffCallback != null) {
+            submitList(list);
+            return;
+        }
         this.dataList.clear();
         this.dataList.addAll(list);
         notifyDataSetChanged();
@@ -99,16 +232,24 @@ public abstract class CommonAdapter<T, VB extends ViewBinding>
     @SuppressLint("NotifyDataSetChanged")
     public void addDataList(List<T> list) {
         if (list != null) {
+            if (diffCallback != null) {
+                // 以最新提交的列表为基础追加
+                List<T> newList = new ArrayList<>(pendingList != null ? pendingList : dataList);
+                newList.addAll(list);
+                submitList(newList);
+                return;
+            }
             this.dataList.addAll(list);
             notifyDataSetChanged();
         }
     }
 
     public void deleteItem(int position) {
-        if (position < 0 || position > this.dataList.size()) {
+        if (position < 0 || position >= this.dataList.size()) {
             return;
         }
         this.dataList.remove(position);
+        dataVersion++;
         notifyItemRemoved(position);
     }
 
@@ -130,14 +271,211 @@ public abstract class CommonAdapter<T, VB extends ViewBinding>
 
     @SuppressLint("NotifyDataSetChanged")
     public void clearAllData() {
+        if (diffCallback != null) {
+            submitList(null);
+            return;
+        }
         dataList.clear();
         notifyDataSetChanged();
     }
 
+    // region [pre inflate]
+
+    private ViewBindingPreInflater preInflater;
+
+    /**
+     * Inflate count bindings of the view type in the background, onCreateViewHolder takes them first
+     *
+     * @param parent the RecyclerView, only used for the layout params
+     */
+    public void preInflate(@NonNull ViewBindingPreInflater preInflater, int viewType, int count, @NonNull ViewGroup parent) {
+        this.preInflater = preInflater;
+        preInflater.preInflate(preInflateKey(viewType), count, parent,
+                (inflater, p) -> onCreateBinding(inflater, p, viewType));
+    }
+
+    private Object preInflateKey(int viewType) {
+        return getClass().getName() + "#" + viewType;
+    }
+
+    // endregion
+
+    // region [stable id]
+
+    private ItemKeyProvider<T> itemKeyProvider;
+
+    /**
+     * Unique, stable key of an item (eg: MediaItemBean.id)
+     */
+    public interface ItemKeyProvider<T> {
+        long getItemKey(@NonNull T item);
+    }
+
+    /**
+     * Enable stable ids: RecyclerView keeps holders by key across data changes.
+     * Must be called before the adapter is set to a RecyclerView.
+     *
+     * @param provider null: no stable ids
+     */
+    public void setItemKeyProvider(@Nullable ItemKeyProvider<T> provider) {
+        this.itemKeyProvider = provider;
+        setHasStableIds(provider != null);
+    }
+
+    /**
+     * notifyItemChanged(position, payload) for the item with this key, see {@link #findPositionByKey}
+     *
+     * @return false: no provider or no item with this key
+     */
+    public boolean notifyItemChangedByKey(long key, @Nullable Object payload) {
+        if (itemKeyProvider == null) {
+            return false;
+        }
+        int position = findPositionByKey(itemKeyProvider, key);
+        if (position < 0) {
+            return false;
+        }
+        notifyItemChanged(position, payload);
+        return true;
+    }
+
+    /**
+     * O(n) lookup through {@link #peekItem}, overridden by {@link PagedCommonAdapter} to search the loaded pages only
+     *
+     * @return -1 if not found
+     */
+    protected int findPositionByKey(@NonNull ItemKeyProvider<T> provider, long key) {
+        for (int position = 0; position < getItemCount(); position++) {
+            T item = peekItem(position);
+            if (item != null && provider.getItemKey(item) == key) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    // endregion
+
+    // region [diff]
+
+    /**
+     * Shared by all adapters, DiffUtil only reads the two list snapshots
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newFixedThreadPool(2);
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private DiffUtil.ItemCallback<T> diffCallback;
+    /**
+     * latest submitted list, null when no diff is running
+     */
+    private List<T> pendingList;
+    /**
+     * only the latest submitted list is committed
+     */
+    private int submitGeneration;
+    /**
+     * bumped on every change of dataList, a diff computed on an older dataList is discarded and recomputed
+     */
+    private int dataVersion;
+
+    /**
+     * Opt in to diff mode: {@link #setNewDataList} / {@link #addDataList} / {@link #clearAllData} compute
+     * the changes off the main thread and dispatch only the changed ranges instead of notifyDataSetChanged.
+     * Main thread only.
+     *
+     * @param diffCallback item identity / content, null: back to notifyDataSetChanged
+     */
+    public void setDiffCallback(@Nullable DiffUtil.ItemCallback<T> diffCallback) {
+        this.diffCallback = diffCallback;
+    }
+
+    /**
+     * Diff the list against the current data in the background, then commit it on the main thread.
+     * Needs {@link #setDiffCallback}, a list submitted later replaces a diff that is still running.
+     */
+    public void submitList(@Nullable List<T> list) {
+        DiffUtil.ItemCallback<T> callback = diffCallback;
+        if (callback == null) {
+            throw new IllegalStateException("setDiffCallback() first");
+        }
+        int generation = ++submitGeneration;
+        List<T> newList = list == null ? new ArrayList<>() : new ArrayList<>(list);
+
+        // 一方为空时无需 diff
+        if (dataList.isEmpty() || newList.isEmpty()) {
+            pendingList = null;
+            int oldSize = dataList.size();
+            dataList.clear();
+            dataList.addAll(newList);
+            dataVersion++;
+            if (oldSize > 0) {
+                notifyItemRangeRemoved(0, oldSize);
+            }
+            if (!newList.isEmpty()) {
+                notifyItemRangeInserted(0, newList.size());
+            }
+            return;
+        }
+
+        pendingList = newList;
+        List<T> oldList = new ArrayList<>(dataList);
+        int version = dataVersion;
+        DIFF_EXECUTOR.execute(() -> {
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldList.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return newList.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                    return callback.areItemsTheSame(oldList.get(oldItemPosition), newList.get(newItemPosition));
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                    return callback.areContentsTheSame(oldList.get(oldItemPosition), newList.get(newItemPosition));
+                }
+
+                @Nullable
+                @Override
+                public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+                    return callback.getChangePayload(oldList.get(oldItemPosition), newList.get(newItemPosition));
+                }
+            });
+            MAIN_HANDLER.post(() -> {
+                if (generation != submitGeneration) {
+                    return;
+                }
+                if (version != dataVersion) {
+                    // dataList 在 diff 期间被修改（eg: deleteItem），重新计算
+                    submitList(newList);
+                    return;
+                }
+                pendingList = null;
+                dataList.clear();
+                dataList.addAll(newList);
+                dataVersion++;
+                result.dispatchUpdatesTo(this);
+            });
+        });
+    }
+
+    // endregion
+
 
     public class BindingViewHolder extends RecyclerView.ViewHolder {
         VB binding;
         ArrayList<View> childClickViews = new ArrayList<>();
+        /**
+         * created once in onCreateViewHolder, shared by all child click views of this holder
+         */
+        View.OnClickListener childClickListener;
         int viewType;
 
         public BindingViewHolder(@NonNull VB binding, int viewType) {
@@ -146,8 +484,17 @@ public abstract class CommonAdapter<T, VB extends ViewBinding>
             this.viewType = viewType;
         }
 
+        /**
+         * Register child click views of this holder, called from onCreateViewHolder with
+         * {@link #onCreateChildClickViews}; a view already registered is skipped
+         */
         public void bindChildClickListener(@NonNull View... views) {
-            childClickViews.addAll(Arrays.asList(views));
+            for (View view : views) {
+                if (!childClickViews.contains(view)) {
+                    childClickViews.add(view);
+                    view.setOnClickListener(childClickListener);
+                }
+            }
         }
     }
 
@@ -169,12 +516,6 @@ public abstract class CommonAdapter<T, VB extends ViewBinding>
         void onItemLongClick(T item, int position, View v);
     }
 
-    protected void bindChildClickListener(View... views) {
-        if (currentHolder != null) {
-            currentHolder.bindChildClickListener(views);
-        }
-    }
-
     public void setOnItemClickListener(OnItemClickListener<T> listener) {
         this.onItemClickListener = listener;
     }
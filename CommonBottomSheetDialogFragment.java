@@ -3,6 +3,7 @@ package com.panasonic.jp.lumixlab.controller.fragment.gallery.abs;
 import android.app.Dialog;
 import android.content.Context;
 import android.os.Bundle;
+import android.view.ContextThemeWrapper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -31,6 +32,33 @@ public abstract class CommonBottomSheetDialogFragment<VB extends ViewBinding> ex
 
     protected abstract VB getViewBinding(@NonNull LayoutInflater inflater, @Nullable ViewGroup container);
 
+    /**
+     * Pool to take the binding from before inflating in onCreateView, default none
+     * <p>
+     * Fill it before showing the sheet, with the sheet class as key:
+     * preInflater.preInflate(MySheet.class, 1, null, (inflater, parent) -&gt; MySheetBinding.inflate(inflater, parent, false))
+     */
+    @Nullable
+    protected ViewBindingPreInflater getPreInflater() {
+        return null;
+    }
+
+    /**
+     * Context with the theme of this sheet ({@link #getTheme()}), for a {@link ViewBindingPreInflater} of sheets.
+     * Can be called before the sheet is shown, eg: on a new instance.
+     */
+    public Context createPreInflateContext(@NonNull Context context) {
+        return new ContextThemeWrapper(context, getTheme());
+    }
+
+    /**
+     * Bottom sheet theme, used by {@link #onCreate} and {@link #createPreInflateContext}
+     */
+    @Override
+    public int getTheme() {
+        return R.style.CustomBottomSheetDialogThemeLight;
+    }
+
     @Override
     public void onAttach(@NonNull Context context) {
         super.onAttach(context);
@@ -41,7 +69,7 @@ public abstract class CommonBottomSheetDialogFragment<VB extends ViewBinding> ex
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setStyle(STYLE_NORMAL, R.style.CustomBottomSheetDialogThemeLight);
+        setStyle(STYLE_NORMAL, getTheme());
     }
 
     @NonNull
@@ -69,7 +97,11 @@ public abstract class CommonBottomSheetDialogFragment<VB extends ViewBinding> ex
             dialog.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_ADJUST_NOTHING);
         }
 
-        viewBinding = getViewBinding(inflater, container);
+        ViewBindingPreInflater preInflater = getPreInflater();
+        viewBinding = preInflater != null ? preInflater.obtain(getClass()) : null;
+        if (viewBinding == null) {
+            viewBinding = getViewBinding(inflater, container);
+        }
         return viewBinding.getRoot();
     }
 
@@ -92,4 +124,4 @@ public abstract class CommonBottomSheetDialogFragment<VB extends ViewBinding> ex
     protected abstract void initData();
 
     protected abstract void initListener();
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+
+/**
+ * 图片解码：一次性采样到目标尺寸，结果为 ARGB_8888（HEIF/HEIC 10bit 的兜底路径）
+ * <p>
+ * Since api 36 a 10-bit HEIF keeps its bit depth (RGBA_1010102) and the views / image libraries show it black,
+ * see 问题总结.md.
+ * <ul>
+ *     <li>api 28+: ImageDecoder with setTargetSize, ALLOCATOR_SOFTWARE and an sRGB target color space,
+ *     sampled and scaled inside the decoder and asked for 8-bit sRGB output, no full resolution bitmap</li>
+ *     <li>api &lt; 28: inSampleSize + inDensity / inTargetDensity in the same pass</li>
+ *     <li>{@link #toArgb8888(Bitmap)} (one bitmap.copy) is only the fallback when the decoder still hands back
+ *     another config; the copy is thumbnail sized</li>
+ * </ul>
+ * Peak memory / decode time against the copy-only path were not measured on a device.
+ * {@link GalleryThumbnailLoader} only uses it when the system thumbnail is not ARGB_8888.
+ */
+public final class GalleryBitmapDecoder {
+
+    private GalleryBitmapDecoder() {
+    }
+
+    /**
+     * Decode an image at most targetSize on the longest side (no upscaling), converted to ARGB_8888 if needed
+     *
+     * @return null if the stream can not be decoded
+     */
+    @Nullable
+    public static Bitmap decodeArgb8888(ContentResolver contentResolver, Uri uri, int targetSize,
+                                        @Nullable CancellationSignal cancellationSignal) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return toArgb8888(decodeWithImageDecoder(contentResolver, uri, targetSize, cancellationSignal));
+        }
+        // 1. bounds only
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = contentResolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        int longestSide = Math.max(options.outWidth, options.outHeight);
+        if (longestSide <= 0) {
+            return null;
+        }
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+
+        // 2. 2 的幂次采样（解码器内完成）+ density 缩放到精确尺寸
+        int sampleSize = 1;
+        while (longestSide / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        int sampledSide = longestSide / sampleSize;
+        if (sampledSide > targetSize) {
+            options.inScaled = true;
+            options.inDensity = sampledSide;
+            options.inTargetDensity = targetSize;
+        }
+
+        Bitmap bitmap;
+        try (InputStream in = contentResolver.openInputStream(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        return toArgb8888(bitmap);
+    }
+
+    @RequiresApi(Build.VERSION_CODES.P)
+    private static Bitmap decodeWithImageDecoder(ContentResolver contentResolver, Uri uri, int targetSize,
+                                                 @Nullable CancellationSignal cancellationSignal) throws IOException {
+        ImageDecoder.Source source = ImageDecoder.createSource(contentResolver, uri);
+        return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+            if (cancellationSignal != null) {
+                cancellationSignal.throwIfCanceled();
+            }
+            // 不放大；解码器内部自行选择采样率再缩放到精确尺寸
+            Size size = info.getSize();
+            int longestSide = Math.max(size.getWidth(), size.getHeight());
+            if (longestSide > targetSize) {
+                float scale = targetSize / (float) longestSide;
+                decoder.setTargetSize(Math.max(1, Math.round(size.getWidth() * scale)),
+                        Math.max(1, Math.round(size.getHeight() * scale)));
+            }
+            // 软件 bitmap（可 copy / 写磁盘缓存）+ sRGB 8bit 输出
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+            decoder.setTargetColorSpace(ColorSpace.get(ColorSpace.Named.SRGB));
+        });
+    }
+
+    /**
+     * No-op for ARGB_8888; any other config (e.g. RGBA_1010102) is copied once and the source recycled.
+     * Fallback only, the bitmap should already be thumbnail sized
+     */
+    @Nullable
+    public static Bitmap toArgb8888(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            return bitmap;
+        }
+        Bitmap copy = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        bitmap.recycle();
+        return copy;
+    }
+}
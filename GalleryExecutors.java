@@ -0,0 +1,204 @@
+
+/**
+ * 相册加载使用的线程模型
+ * <ul>
+ *     <li>folder lane：文件夹列表等后台加载（loadAlbumFolders / loadSpecialFolders）</li>
+ *     <li>item lane：用户点击触发的媒体列表加载（loadMediaItems），不会排在文件夹加载之后</li>
+ *     <li>scan pool：单次加载内，Images / Video 各个 uri 的 cursor 查询并发执行（第一个查询在 lane 线程上执行）</li>
+ * </ul>
+ * Each lane is single threaded so the state it owns (eg: the synced folder tree) needs no locking.
+ */
+public final class GalleryExecutors {
+
+    /**
+     * one per lane: the second uri (Video) of the folder lane and of the item lane
+     */
+    private static final int DEFAULT_SCAN_THREADS = 2;
+
+    final ExecutorService folderExecutor;
+    final ExecutorService itemExecutor;
+    final ExecutorService scanExecutor;
+
+    private GalleryExecutors(Builder builder) {
+        this.folderExecutor = builder.folderExecutor != null
+                ? builder.folderExecutor : Executors.newSingleThreadExecutor(namedThreadFactory("gallery-folder"));
+        this.itemExecutor = builder.itemExecutor != null
+                ? builder.itemExecutor : Executors.newSingleThreadExecutor(namedThreadFactory("gallery-item"));
+        this.scanExecutor = builder.scanExecutor != null
+                ? builder.scanExecutor : Executors.newFixedThreadPool(DEFAULT_SCAN_THREADS, namedThreadFactory("gallery-scan"));
+    }
+
+    /**
+     * {@link #invokeScans(List, Consumer)} for results that hold no resource
+     */
+    <T> List<T> invokeScans(List<Callable<T>> scans) {
+        return invokeScans(scans, null);
+    }
+
+    /**
+     * Run the scans and wait for all of them: the first one inline on the calling lane thread,
+     * the others on {@link #scanExecutor}
+     * <p>
+     * A lane never holds more than scans - 1 pool threads, so a full folder scan leaves a pool thread
+     * for the item lane instead of queueing its queries behind the folder scan.
+     * <p>
+     * When the caller stops waiting (pool shut down, lane interrupted), a result that is not returned is passed
+     * to discard, also one that completes later on a pool thread, eg: an open cursor is closed instead of leaked.
+     *
+     * @param discard nullable, releases a result that is not handed back
+     * @return results in task order, null for a task that failed or was abandoned
+     */
+    <T> List<T> invokeScans(List<Callable<T>> scans, @Nullable Consumer<T> discard) {
+        List<T> results = new ArrayList<>(scans.size());
+        if (scans.isEmpty()) {
+            return results;
+        }
+        List<ScanTask<T>> tasks = new ArrayList<>(scans.size() - 1);
+        try {
+            for (int i = 1; i < scans.size(); i++) {
+                ScanTask<T> task = new ScanTask<>(scans.get(i), discard);
+                tasks.add(task);
+                task.future = scanExecutor.submit(task);
+            }
+        } catch (RejectedExecutionException e) {
+            // 已 shutdown
+            abandonAll(tasks, 0);
+            return results;
+        }
+
+        try {
+            results.add(scans.get(0).call());
+        } catch (Exception e) {
+            e.printStackTrace();
+            results.add(null);
+        }
+
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                results.add(tasks.get(i).future.get());
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                results.add(null);
+            } catch (CancellationException e) {
+                results.add(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // 不再等待：其余结果（含已完成的）交给 discard
+                abandonAll(tasks, i);
+                while (results.size() < scans.size()) {
+                    results.add(null);
+                }
+                break;
+            }
+        }
+        return results;
+    }
+
+    private static <T> void abandonAll(List<ScanTask<T>> tasks, int from) {
+        for (int i = from; i < tasks.size(); i++) {
+            tasks.get(i).abandon();
+        }
+    }
+
+    /**
+     * One pooled scan. Whichever of {@link #call()} / {@link #abandon()} comes second discards the result,
+     * so a result is either handed to the caller or discarded, never dropped.
+     */
+    private static final class ScanTask<T> implements Callable<T> {
+        private final Callable<T> scan;
+        private final Consumer<T> discard;
+        Future<T> future;
+
+        /**
+         * guarded by this
+         */
+        private boolean abandoned;
+        private T result;
+
+        ScanTask(Callable<T> scan, @Nullable Consumer<T> discard) {
+            this.scan = scan;
+            this.discard = discard;
+        }
+
+        @Override
+        public T call() throws Exception {
+            T value = scan.call();
+            synchronized (this) {
+                if (!abandoned) {
+                    result = value;
+                    return value;
+                }
+            }
+            release(value);
+            return null;
+        }
+
+        void abandon() {
+            T value;
+            synchronized (this) {
+                abandoned = true;
+                value = result;
+                result = null;
+            }
+            release(value);
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        private void release(T value) {
+            if (value != null && discard != null) {
+                discard.accept(value);
+            }
+        }
+    }
+
+    public void shutdown() {
+        folderExecutor.shutdownNow();
+        itemExecutor.shutdownNow();
+        scanExecutor.shutdownNow();
+    }
+
+    private static ThreadFactory namedThreadFactory(String name) {
+        AtomicInteger index = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + index.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+    }
+
+    public static class Builder {
+        private ExecutorService folderExecutor;
+        private ExecutorService itemExecutor;
+        private ExecutorService scanExecutor;
+
+        /**
+         * Background lane, default single thread
+         */
+        public Builder folderExecutor(ExecutorService folderExecutor) {
+            this.folderExecutor = folderExecutor;
+            return this;
+        }
+
+        /**
+         * User triggered lane, default single thread
+         */
+        public Builder itemExecutor(ExecutorService itemExecutor) {
+            this.itemExecutor = itemExecutor;
+            return this;
+        }
+
+        /**
+         * Per-uri cursor scans, default 2 threads. Must not be one of the lanes, a lane waits for its scans.
+         */
+        public Builder scanExecutor(ExecutorService scanExecutor) {
+            this.scanExecutor = scanExecutor;
+            return this;
+        }
+
+        public GalleryExecutors build() {
+            return new GalleryExecutors(this);
+        }
+    }
+}
@@ -0,0 +1,510 @@
+
+/**
+ * 相册缩略图加载：内存 LRU + 磁盘缓存 + 相同 key 合并解码 + 限制并发
+ * <p>
+ * Key = (media id, version, target size), version is DATE_MODIFIED of the item (of the cover item for a folder,
+ * see {@link #putCoverVersion}), so an edited file gets a new key instead of a stale thumbnail, and a folder cover
+ * shares the key of its grid item.
+ * <ul>
+ *     <li>memory: one {@link LruCache} per {@link ThumbnailTier}, each bounded by its share of the bitmap bytes but
+ *     never below one screenful of that tier</li>
+ *     <li>disk: downscaled WebP (JPEG below api 30) in cacheDir/gallery_thumbnails, least recently read files are
+ *     deleted once the running byte total goes over the budget (the directory is listed only once)</li>
+ *     <li>decode: one in-flight request per key, every caller of that key gets the same bitmap</li>
+ * </ul>
+ * Callbacks are delivered on the main thread.
+ */
+public final class GalleryThumbnailLoader {
+
+    private static final String DISK_CACHE_DIR = "gallery_thumbnails";
+    private static final int DEFAULT_DECODE_THREADS = 3;
+    private static final long DEFAULT_DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int DISK_QUALITY = 85;
+
+    private static volatile GalleryThumbnailLoader instance;
+
+    /**
+     * cover media id -&gt; DATE_MODIFIED, {@link MediaFolderBean} carries no version of its cover
+     */
+    private static final Map<Long, Long> COVER_VERSIONS = new ConcurrentHashMap<>();
+
+    public interface Callback {
+        /**
+         * @param bitmap null if the media could not be decoded
+         */
+        void onThumbnailLoaded(@Nullable Bitmap bitmap);
+    }
+
+    private final ContentResolver contentResolver;
+    private final Map<ThumbnailTier, LruCache<String, Bitmap>> memoryCaches = new EnumMap<>(ThumbnailTier.class);
+    private final File diskCacheDir;
+    private final long diskCacheBytes;
+    private final ExecutorService decodeExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * key -&gt; running decode, guarded by itself
+     */
+    private final Map<String, InFlight> inFlight = new HashMap<>();
+
+    /**
+     * Disk files in access order (eldest first), key -&gt; file length, guarded by itself.
+     * Loaded from the directory on the first disk access, then kept up to date by reads and writes.
+     */
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(64, 0.75f, true);
+    private boolean diskEntriesLoaded;
+    private long diskCacheSize;
+
+    public static GalleryThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            synchronized (GalleryThumbnailLoader.class) {
+                if (instance == null) {
+                    instance = new Builder(context).build();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private GalleryThumbnailLoader(Builder builder) {
+        Context context = builder.context.getApplicationContext();
+        this.contentResolver = context.getContentResolver();
+        // 竖屏尺寸：每档至少容纳一屏，否则 1 - 2 列时滚动即淘汰刚解码的行
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int screenWidth = Math.min(metrics.widthPixels, metrics.heightPixels);
+        int screenHeight = Math.max(metrics.widthPixels, metrics.heightPixels);
+        for (ThumbnailTier tier : ThumbnailTier.values()) {
+            long shareBytes = (long) (builder.memoryCacheBytes * tier.memoryShare);
+            long tierBytes = Math.max(shareBytes, tier.screenfulBytes(screenWidth, screenHeight));
+            int maxBytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, tierBytes));
+            memoryCaches.put(tier, new LruCache<String, Bitmap>(maxBytes) {
+                @Override
+                protected int sizeOf(@NonNull String key, @NonNull Bitmap value) {
+                    return value.getAllocationByteCount();
+                }
+            });
+        }
+        this.diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        this.diskCacheBytes = builder.diskCacheBytes;
+        AtomicInteger index = new AtomicInteger();
+        this.decodeExecutor = Executors.newFixedThreadPool(builder.decodeThreads, runnable -> {
+            Thread thread = new Thread(runnable, "gallery-thumbnail-" + index.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * Memory cache only, for a synchronous bind
+     */
+    @Nullable
+    public Bitmap getCached(long id, long version, int targetSize) {
+        return memoryCacheFor(targetSize).get(buildKey(id, version, targetSize));
+    }
+
+    /**
+     * Cached bitmap of the tier, else of the nearest cached tier (larger first: downscaling looks better)
+     */
+    @Nullable
+    public Bitmap getCachedNearestTier(long id, long version, @NonNull ThumbnailTier tier) {
+        ThumbnailTier[] tiers = ThumbnailTier.values();
+        for (int distance = 0; distance < tiers.length; distance++) {
+            int larger = tier.ordinal() + distance;
+            if (larger < tiers.length) {
+                Bitmap bitmap = getCached(id, version, tiers[larger].sizePx);
+                if (bitmap != null) return bitmap;
+            }
+            int smaller = tier.ordinal() - distance;
+            if (distance > 0 && smaller >= 0) {
+                Bitmap bitmap = getCached(id, version, tiers[smaller].sizePx);
+                if (bitmap != null) return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load at the tier size. Without an exact hit, the nearest cached tier is delivered at once (eg: right after a
+     * zoom step) and the callback is called again with the upgraded bitmap.
+     */
+    public Request loadTiered(@NonNull MediaItemBean item, @NonNull ThumbnailTier tier, @NonNull Callback callback) {
+        if (getCached(item.id, item.dateModified, tier.sizePx) == null) {
+            Bitmap nearest = getCachedNearestTier(item.id, item.dateModified, tier);
+            if (nearest != null) {
+                callback.onThumbnailLoaded(nearest);
+            }
+        }
+        return load(item, tier.sizePx, callback);
+    }
+
+    public Request load(@NonNull MediaItemBean item, int targetSize, @NonNull Callback callback) {
+        return load(item.contentUri, item.mimeType, item.dateModified, targetSize, callback);
+    }
+
+    /**
+     * Record the DATE_MODIFIED of a folder cover, called by whoever builds the folder beans
+     */
+    public static void putCoverVersion(long mediaId, long dateModified) {
+        if (mediaId >= 0) {
+            COVER_VERSIONS.put(mediaId, dateModified);
+        }
+    }
+
+    /**
+     * Folder cover, same key as the cover item in the media grid. A cover without a recorded version
+     * (eg: a folder restored from the snapshot before the tree is rebuilt) is keyed by latestDateTaken.
+     */
+    public Request load(@NonNull MediaFolderBean folder, int targetSize, @NonNull Callback callback) {
+        Long version = folder.coverUri == null ? null : COVER_VERSIONS.get(parseMediaId(folder.coverUri));
+        return load(folder.coverUri, folder.mimeType, version != null ? version : folder.latestDateTaken,
+                targetSize, callback);
+    }
+
+    public Request load(@Nullable Uri uri, long version, int targetSize, @NonNull Callback callback) {
+        return load(uri, null, version, targetSize, callback);
+    }
+
+    /**
+     * @param uri        item uri (images / video)
+     * @param mimeType   an image whose system thumbnail is not ARGB_8888 is decoded again by
+     *                   {@link GalleryBitmapDecoder}, null: unknown
+     * @param version    changes when the media changes, eg: DATE_MODIFIED
+     * @param targetSize longest side in px
+     * @return handle to cancel, a memory hit is delivered before returning
+     */
+    public Request load(@Nullable Uri uri, @Nullable String mimeType, long version, int targetSize,
+                        @NonNull Callback callback) {
+        if (uri == null || targetSize <= 0) {
+            callback.onThumbnailLoaded(null);
+            return new Request(null, callback);
+        }
+        String key = buildKey(uri, version, targetSize);
+        Bitmap cached = memoryCacheFor(targetSize).get(key);
+        if (cached != null) {
+            callback.onThumbnailLoaded(cached);
+            return new Request(null, callback);
+        }
+
+        Request request = new Request(key, callback);
+        synchronized (inFlight) {
+            InFlight running = inFlight.get(key);
+            if (running == null) {
+                running = new InFlight();
+                inFlight.put(key, running);
+                InFlight decode = running;
+                running.future = decodeExecutor.submit(() -> runDecode(key, uri, mimeType, targetSize, decode));
+            }
+            running.requests.add(request);
+        }
+        return request;
+    }
+
+    public void clearMemory() {
+        for (LruCache<String, Bitmap> memoryCache : memoryCaches.values()) {
+            memoryCache.evictAll();
+        }
+    }
+
+    private void runDecode(String key, Uri uri, String mimeType, int targetSize, InFlight decode) {
+        Bitmap bitmap = null;
+        try {
+            bitmap = readDiskCache(key);
+            if (bitmap == null && !decode.cancellationSignal.isCanceled()) {
+                bitmap = decode(uri, mimeType, targetSize, decode.cancellationSignal);
+                if (bitmap != null) {
+                    writeDiskCache(key, bitmap);
+                }
+            }
+        } catch (OperationCanceledException ignored) {
+            // 所有请求都已取消
+        }
+        if (bitmap != null) {
+            memoryCacheFor(targetSize).put(key, bitmap);
+        }
+
+        List<Request> requests;
+        synchronized (inFlight) {
+            // 取消后同一 key 可能已有新的解码
+            if (inFlight.get(key) == decode) {
+                inFlight.remove(key);
+            }
+            requests = new ArrayList<>(decode.requests);
+        }
+        Bitmap result = bitmap;
+        mainHandler.post(() -> {
+            for (Request request : requests) {
+                if (!request.canceled) {
+                    request.callback.onThumbnailLoaded(result);
+                }
+            }
+        });
+    }
+
+    @Nullable
+    private Bitmap decode(Uri uri, String mimeType, int targetSize, CancellationSignal cancellationSignal) {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Bitmap thumbnail = contentResolver.loadThumbnail(uri, new Size(targetSize, targetSize),
+                        cancellationSignal);
+                // api 36 起 10bit 源的系统缩略图可能是 RGBA_1010102：图片改用 ImageDecoder 直接解到 8888
+                if (thumbnail.getConfig() == Bitmap.Config.ARGB_8888) {
+                    return thumbnail;
+                }
+                if (isImage(mimeType)) {
+                    try {
+                        Bitmap decoded = GalleryBitmapDecoder.decodeArgb8888(contentResolver, uri, targetSize,
+                                cancellationSignal);
+                        if (decoded != null) {
+                            thumbnail.recycle();
+                            return decoded;
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                // 视频（无法按帧重新解码）或解码失败：复制已是目标尺寸的缩略图
+                return GalleryBitmapDecoder.toArgb8888(thumbnail);
+            }
+            // api < 29: images only
+            return GalleryBitmapDecoder.decodeArgb8888(contentResolver, uri, targetSize, cancellationSignal);
+        } catch (IOException | SecurityException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static boolean isImage(@Nullable String mimeType) {
+        return mimeType != null && mimeType.startsWith("image/");
+    }
+
+    @Nullable
+    private Bitmap readDiskCache(String key) {
+        File file = new File(diskCacheDir, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        synchronized (diskEntries) {
+            loadDiskEntries();
+            if (bitmap == null) {
+                file.delete();
+                removeDiskEntry(key);
+            } else {
+                // 访问顺序移到末尾；mtime 供下次启动时恢复顺序
+                diskEntries.get(key);
+                file.setLastModified(System.currentTimeMillis());
+            }
+        }
+        return bitmap;
+    }
+
+    private void writeDiskCache(String key, Bitmap bitmap) {
+        if (!diskCacheDir.isDirectory() && !diskCacheDir.mkdirs()) {
+            return;
+        }
+        File file = new File(diskCacheDir, key);
+        File tempFile;
+        try {
+            // 每次写入使用唯一的临时文件：同一 key 的两次解码（取消后重新加载）不会写同一个文件
+            tempFile = File.createTempFile(key, ".tmp", diskCacheDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.JPEG;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            bitmap.compress(format, DISK_QUALITY, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            return;
+        }
+        synchronized (diskEntries) {
+            loadDiskEntries();
+            removeDiskEntry(key);
+            long length = file.length();
+            diskEntries.put(key, length);
+            diskCacheSize += length;
+            if (diskCacheSize > diskCacheBytes) {
+                trimDiskCache();
+            }
+        }
+    }
+
+    /**
+     * Once per process: index the files left by the previous runs, oldest mtime first. Holds diskEntries.
+     */
+    private void loadDiskEntries() {
+        if (diskEntriesLoaded) return;
+        diskEntriesLoaded = true;
+
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                // 上次写入中断留下的临时文件
+                file.delete();
+                continue;
+            }
+            long length = file.length();
+            diskEntries.put(file.getName(), length);
+            diskCacheSize += length;
+        }
+    }
+
+    /**
+     * Holds diskEntries
+     */
+    private void removeDiskEntry(String key) {
+        Long length = diskEntries.remove(key);
+        if (length != null) {
+            diskCacheSize -= length;
+        }
+    }
+
+    /**
+     * Delete the least recently used files down to 3/4 of the budget. Holds diskEntries.
+     */
+    private void trimDiskCache() {
+        Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+        while (iterator.hasNext() && diskCacheSize > diskCacheBytes * 3 / 4) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(diskCacheDir, eldest.getKey()).delete();
+            diskCacheSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private LruCache<String, Bitmap> memoryCacheFor(int targetSize) {
+        return memoryCaches.get(ThumbnailTier.forSize(targetSize));
+    }
+
+    private static String buildKey(long id, long version, int targetSize) {
+        return id + "_" + version + "_" + targetSize;
+    }
+
+    /**
+     * Media uri: same key as {@link #buildKey(long, long, int)}. A uri without an id segment is keyed by a
+     * digest of the whole uri (also a file name of the disk cache).
+     */
+    private static String buildKey(Uri uri, long version, int targetSize) {
+        long id = parseMediaId(uri);
+        if (id >= 0) {
+            return buildKey(id, version, targetSize);
+        }
+        return "u" + digest(uri.toString()) + "_" + version + "_" + targetSize;
+    }
+
+    /**
+     * @return -1 if the uri has no id segment
+     */
+    private static long parseMediaId(Uri uri) {
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    /**
+     * One decode shared by every request of its key
+     */
+    private static class InFlight {
+        final List<Request> requests = new ArrayList<>();
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        Future<?> future;
+    }
+
+    /**
+     * One {@link #load} call, cancel when the view is recycled / detached
+     */
+    public final class Request {
+        private final String key;
+        private final Callback callback;
+        private volatile boolean canceled;
+
+        Request(String key, Callback callback) {
+            this.key = key;
+            this.callback = callback;
+        }
+
+        /**
+         * Drop the callback, the decode is cancelled when no request of its key is left
+         */
+        public void cancel() {
+            canceled = true;
+            if (key == null) return;
+
+            synchronized (inFlight) {
+                InFlight running = inFlight.get(key);
+                if (running == null) return;
+                running.requests.remove(this);
+                if (running.requests.isEmpty()) {
+                    inFlight.remove(key);
+                    running.cancellationSignal.cancel();
+                    running.future.cancel(false);
+                }
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Context context;
+        private int memoryCacheBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        private long diskCacheBytes = DEFAULT_DISK_CACHE_BYTES;
+        private int decodeThreads = DEFAULT_DECODE_THREADS;
+
+        public Builder(Context context) {
+            this.context = context;
+        }
+
+        /**
+         * Bitmap bytes kept in memory, default 1/8 of the heap, split by {@link ThumbnailTier} share. A tier whose
+         * share is below one screenful gets the screenful, so the total may go over this on a small heap
+         */
+        public Builder memoryCacheBytes(int memoryCacheBytes) {
+            this.memoryCacheBytes = memoryCacheBytes;
+            return this;
+        }
+
+        /**
+         * Default 64 MB
+         */
+        public Builder diskCacheBytes(long diskCacheBytes) {
+            this.diskCacheBytes = diskCacheBytes;
+            return this;
+        }
+
+        /**
+         * Concurrent decodes, default 3
+         */
+        public Builder decodeThreads(int decodeThreads) {
+            this.decodeThreads = Math.max(1, decodeThreads);
+            return this;
+        }
+
+        public GalleryThumbnailLoader build() {
+            return new GalleryThumbnailLoader(this);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+
+/**
+ * 媒体网格滚动时提前解码即将出现的缩略图
+ * <p>
+ * Watches the scroll direction and speed of a {@link GridLayoutManager} grid and decodes the next rows ahead of
+ * the visible window through {@link GalleryThumbnailLoader} (results go to its memory cache, the bind then hits it).
+ * The decode size is the {@link ThumbnailTier} of the current cell width, read on every scroll so a zoomIn / zoomOut
+ * column change applies at once. Prefetches that fall out of the window, or were requested for another tier, are cancelled.
+ * Entries are keyed by media id and dropped when the list changes structurally (new list, reload, filter), items are
+ * read with {@link CommonAdapter#getItemAt} which does not load pages of a paged adapter.
+ * <p>
+ * Main thread only.
+ */
+public final class GalleryThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+
+    /**
+     * rows ahead when scrolling slowly
+     */
+    private static final int MIN_ROWS_AHEAD = 2;
+    private static final int DEFAULT_MAX_ROWS_AHEAD = 8;
+    /**
+     * rows kept behind the window before their prefetch is cancelled
+     */
+    private static final int ROWS_BEHIND = 1;
+
+    private static final GalleryThumbnailLoader.Callback NO_OP = bitmap -> {
+    };
+
+    private final GalleryThumbnailLoader loader;
+    private final CommonAdapter<MediaItemBean, ?> adapter;
+    private final int maxRowsAhead;
+
+    /**
+     * key = media id
+     */
+    private final LongSparseArray<Prefetch> prefetches = new LongSparseArray<>();
+    private RecyclerView recyclerView;
+
+    /**
+     * Positions of the entries are stale after a structural change: drop them, the next scroll requests again
+     */
+    private final RecyclerView.AdapterDataObserver dataObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            cancelAll();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            cancelAll();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            cancelAll();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            cancelAll();
+        }
+    };
+
+    public GalleryThumbnailPrefetcher(@NonNull GalleryThumbnailLoader loader,
+                                      @NonNull CommonAdapter<MediaItemBean, ?> adapter) {
+        this(loader, adapter, DEFAULT_MAX_ROWS_AHEAD);
+    }
+
+    /**
+     * @param maxRowsAhead rows decoded ahead during a fast fling
+     */
+    public GalleryThumbnailPrefetcher(@NonNull GalleryThumbnailLoader loader,
+                                      @NonNull CommonAdapter<MediaItemBean, ?> adapter, int maxRowsAhead) {
+        this.loader = loader;
+        this.adapter = adapter;
+        this.maxRowsAhead = Math.max(MIN_ROWS_AHEAD, maxRowsAhead);
+    }
+
+    public void attach(@NonNull RecyclerView recyclerView) {
+        detach();
+        this.recyclerView = recyclerView;
+        recyclerView.addOnScrollListener(this);
+        adapter.registerAdapterDataObserver(dataObserver);
+    }
+
+    public void detach() {
+        if (recyclerView != null) {
+            recyclerView.removeOnScrollListener(this);
+            adapter.unregisterAdapterDataObserver(dataObserver);
+            recyclerView = null;
+        }
+        cancelAll();
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) return;
+        if (!(recyclerView.getLayoutManager() instanceof GridLayoutManager)) return;
+
+        GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+        int spanCount = layoutManager.getSpanCount();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) return;
+
+        int cellSize = (recyclerView.getWidth() - recyclerView.getPaddingLeft() - recyclerView.getPaddingRight()) / spanCount;
+        if (cellSize <= 0) return;
+
+        int decodeSize = ThumbnailTier.forSize(cellSize).sizePx;
+
+        // 速度越快预取越多行：dy 为本帧滚动距离，约等于 px / frame
+        int rowsAhead = Math.min(maxRowsAhead, MIN_ROWS_AHEAD + Math.abs(dy) / cellSize);
+        int ahead = rowsAhead * spanCount;
+        int behind = ROWS_BEHIND * spanCount;
+
+        int windowStart;
+        int windowEnd;
+        int prefetchStart;
+        int prefetchEnd;
+        if (dy > 0) {
+            prefetchStart = last + 1;
+            prefetchEnd = last + ahead;
+            windowStart = first - behind;
+            windowEnd = prefetchEnd;
+        } else {
+            prefetchStart = first - ahead;
+            prefetchEnd = first - 1;
+            windowStart = prefetchStart;
+            windowEnd = last + behind;
+        }
+
+        cancelOutside(windowStart, windowEnd, decodeSize);
+
+        int count = adapter.getItemCount();
+        for (int position = Math.max(0, prefetchStart); position <= Math.min(count - 1, prefetchEnd); position++) {
+            MediaItemBean item = adapter.getItemAt(position);
+            if (item == null || prefetches.get(item.id) != null) continue;
+            prefetches.put(item.id, new Prefetch(position, decodeSize, loader.load(item, decodeSize, NO_OP)));
+        }
+    }
+
+    /**
+     * Cancel prefetches out of [start, end] or for another decode size (zoom changed the tier)
+     */
+    private void cancelOutside(int start, int end, int decodeSize) {
+        for (int i = prefetches.size() - 1; i >= 0; i--) {
+            Prefetch prefetch = prefetches.valueAt(i);
+            if (prefetch.position < start || prefetch.position > end || prefetch.decodeSize != decodeSize) {
+                prefetch.request.cancel();
+                prefetches.removeAt(i);
+            }
+        }
+    }
+
+    public void cancelAll() {
+        for (int i = 0; i < prefetches.size(); i++) {
+            prefetches.valueAt(i).request.cancel();
+        }
+        prefetches.clear();
+    }
+
+    private static class Prefetch {
+        /**
+         * adapter position when requested, valid until the next structural change
+         */
+        final int position;
+        final int decodeSize;
+        final GalleryThumbnailLoader.Request request;
+
+        Prefetch(int position, int decodeSize, GalleryThumbnailLoader.Request request) {
+            this.position = position;
+            this.decodeSize = decodeSize;
+            this.request = request;
+        }
+    }
+}
@@ -1,10 +1,61 @@
 
 public class GalleryViewModel extends ViewModel {
 
+    /**
+     * folder lane / item lane / scan pool, see {@link GalleryExecutors}
+     */
+    private final GalleryExecutors executors;
+    private final boolean ownsExecutors;
+
+    public GalleryViewModel() {
+        this(new GalleryExecutors.Builder().build(), true);
+    }
+
+    /**
+     * @param executors shared executors, not shut down when this ViewModel is cleared
+     */
+    public GalleryViewModel(GalleryExecutors executors) {
+        this(executors, false);
+    }
+
+    private GalleryViewModel(GalleryExecutors executors, boolean ownsExecutors) {
+        this.executors = executors;
+        this.ownsExecutors = ownsExecutors;
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        cancelRequest(mediaItemsRequest);
+        cancelRequest(mediaItemsPageRequest);
+        cancelRequest(filteredItemsRequest);
+        activeFilter = null;
+        filterRefreshHandler.removeCallbacks(refreshFilterRunnable);
+        synchronized (this) {
+            if (metadataExtractor != null) {
+                metadataExtractor.shutdown();
+                metadataExtractor = null;
+            }
+        }
+        stopObservingMediaStore();
+        if (ownsExecutors) {
+            executors.shutdown();
+        }
+    }
+
     // region [Album Folder]  获取系统相册，文件夹列表
 
     private final SingleLiveEvent<List<MediaFolderBean>> albumFoldersLiveData = new SingleLiveEvent<>();
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private FolderTreeState folderTreeState;
+    /**
+     * true: a folder tree was posted (snapshot included), only accessed on the folder lane
+     */
+    private boolean albumFoldersPosted;
+    /**
+     * true: a folder load is queued and not started yet, further calls are merged into it
+     */
+    private final AtomicBoolean albumFoldersQueued = new AtomicBoolean();
+    private volatile boolean albumFoldersForceFullScan;
 
     /**
      * Observe the album folder list results
@@ -15,21 +66,85 @@ public class GalleryViewModel extends ViewModel {
 
     /**
      * Build a multi-level album folder structure
+     * <p>
+     * Api 30+: the last snapshot is shown first, then the tree is built from per-folder aggregates
+     * (see {@link #buildAggregatedFolderTree}), O(folders) on every call. Elsewhere, or when the provider rejects
+     * the aggregation, the first call scans every row and later calls only apply the rows MediaStore reports
+     * as added / changed / deleted since the last sync (see {@link #syncAlbumFolders}).
      */
     public void loadAlbumFolders(Context context) {
+        loadAlbumFolders(context, false);
+    }
+
+    /**
+     * Build a multi-level album folder structure
+     *
+     * @param forceFullScan true: drop the synced state and rebuild the whole tree from MediaStore
+     */
+    public void loadAlbumFolders(Context context, boolean forceFullScan) {
         if (context == null) {
             albumFoldersLiveData.postValue(new ArrayList<>());
             return;
         }
 
-        executorService.execute(() -> {
-            List<MediaItemPath> allPaths = new ArrayList<>();
+        if (forceFullScan) {
+            albumFoldersForceFullScan = true;
+        }
+        // 已有排队中的加载，合并为一次（正在执行的加载不受影响，结束后再执行排队的这一次）
+        if (!albumFoldersQueued.compareAndSet(false, true)) {
+            return;
+        }
+
+        executors.folderExecutor.execute(() -> {
+            albumFoldersQueued.set(false);
+            boolean fullScan = albumFoldersForceFullScan;
+            albumFoldersForceFullScan = false;
+
+            AlbumFolderSnapshot snapshot = new AlbumFolderSnapshot(context);
+            String mediaStoreVersion = getMediaStoreVersion(context);
+
+            if (!fullScan && syncAlbumFolders(context)) {
+                MediaFolderBean allResourceFolder = wrapAllResource(collectRootFolders(folderTreeState));
+                albumFoldersLiveData.postValue(Collections.singletonList(allResourceFolder));
+                if (folderTreeState.snapshotStale) {
+                    snapshot.write(allResourceFolder, mediaStoreVersion);
+                    folderTreeState.snapshotStale = false;
+                }
+                return;
+            }
+
+            // 冷启动：先展示上次的快照
+            if (!albumFoldersPosted) {
+                MediaFolderBean snapshotFolder = snapshot.read(mediaStoreVersion);
+                if (snapshotFolder != null) {
+                    albumFoldersLiveData.postValue(Collections.singletonList(snapshotFolder));
+                    albumFoldersPosted = true;
+                }
+            }
+
+            // 按目录聚合（本地媒体索引或 MediaStore GROUP BY），不逐行读取
+            if (!fullScan) {
+                MediaFolderBean aggregatedFolder = buildAggregatedFolderTree(context);
+                if (aggregatedFolder != null) {
+                    // 不可增量同步的旧状态不再保留，之后每次都重新聚合
+                    folderTreeState = null;
+                    albumFoldersLiveData.postValue(Collections.singletonList(aggregatedFolder));
+                    albumFoldersPosted = true;
+                    snapshot.write(aggregatedFolder, mediaStoreVersion);
+                    return;
+                }
+            }
+
+            FolderTreeState state = new FolderTreeState();
+            // 先记录 version / generation，扫描期间发生的变更会在下一次增量同步中再处理一次
+            recordSyncPoint(context, state);
 
             // 1. Get all media paths
-            collectAllMediaPaths(context, allPaths);
+            collectAllMediaPaths(context, state.index);
 
             // 2. Building a multi-level folder tree
-            List<MediaFolderBean> folderTree = buildFolderTree(allPaths);
+            List<MediaFolderBean> folderTree = buildFolderTree(state);
+            folderTreeState = state;
 
             // 3. 封装顶级虚拟文件夹 ALL_RESOURCE (所有图片)
 
@@ -46,60 +161,184 @@ public class GalleryViewModel extends ViewModel {
 //                    *
             MediaFolderBean allResourceFolder = wrapAllResource(folderTree);
             albumFoldersLiveData.postValue(Collections.singletonList(allResourceFolder));
+            albumFoldersPosted = true;
+            snapshot.write(allResourceFolder, mediaStoreVersion);
         });
     }
 
+    /**
+     * Folder tree from per-relative-path aggregates, O(folders) rows instead of one per media:
+     * from {@link MediaIndexDatabase} once it is synced (no provider query), else from MediaStore
+     * (see {@link #queryMediaStoreAggregates}). The index is never synced here, see {@link #syncMediaIndex}.
+     *
+     * @return the ALL_RESOURCE folder, null: api &lt; 30 or the provider rejected the aggregation
+     */
+    @Nullable
+    private MediaFolderBean buildAggregatedFolderTree(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return null;
+        }
+        MediaIndexDatabase mediaIndex = MediaIndexDatabase.getInstance(context);
+        List<MediaIndexDatabase.FolderAggregate> aggregates = mediaIndex.isSynced()
+                ? mediaIndex.aggregateByRelativePath()
+                : queryMediaStoreAggregates(context, MediaStore.MediaColumns.RELATIVE_PATH);
+        if (aggregates == null) {
+            return null;
+        }
+
+        MediaFolderTrie trie = new MediaFolderTrie();
+        for (MediaIndexDatabase.FolderAggregate aggregate : aggregates) {
+            trie.addAggregate(aggregate);
+        }
+        List<MediaFolderBean> rootFolders = handleSpecialFolders(trie);
+        rootFolders.sort(Comparator.comparing(f -> f.bucketName == null ? "" : f.bucketName));
+        return wrapAllResource(rootFolders);
+    }
+
+    /**
+     * Count and newest item per group, asked from MediaStore: one QUERY_ARG_SQL_GROUP_BY query per table for
+     * the counts, then one sorted `LIMIT 1` query per group for its cover (see {@link #queryLatestMediaPath}).
+     * O(folders) rows instead of one per media.
+     *
+     * @param groupBy {@link MediaStore.MediaColumns#RELATIVE_PATH} or {@link MediaStore.MediaColumns#BUCKET_ID}
+     * @return null: api &lt; 30 or the provider rejected the aggregation, caller falls back to a scan
+     */
+    @Nullable
+    private List<MediaIndexDatabase.FolderAggregate> queryMediaStoreAggregates(Context context, String groupBy) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return null;
+        }
+        Uri[] uris = new Uri[]{
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+        };
+        String[] projection = new String[]{
+                MediaStore.MediaColumns.BUCKET_ID,
+                MediaStore.MediaColumns.BUCKET_DISPLAY_NAME,
+                MediaStore.MediaColumns.RELATIVE_PATH,
+                "COUNT(*)"
+        };
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, groupBy + " IS NOT NULL");
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_GROUP_BY, groupBy);
+
+        // 1. 每组一行：图片、视频的计数按组合并
+        int groupColumn = MediaStore.MediaColumns.BUCKET_ID.equals(groupBy) ? 0 : 2;
+        Map<String, String[]> names = new LinkedHashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (Uri uri : uris) {
+            try (Cursor cursor = context.getContentResolver().query(uri, projection, queryArgs, null)) {
+                if (cursor == null) continue;
+                while (cursor.moveToNext()) {
+                    String key = cursor.getString(groupColumn);
+                    if (!names.containsKey(key)) {
+                        names.put(key, new String[]{cursor.getString(0), cursor.getString(1), cursor.getString(2)});
+                    }
+                    counts.merge(key, cursor.getInt(3), Integer::sum);
+                }
+            } catch (SecurityException e) {
+                // 无权限时扫描同样拿不到数据，不再回退
+                e.printStackTrace();
+                return new ArrayList<>();
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // 部分 ROM 的 MediaProvider 不接受 GROUP BY / 聚合列
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        // 2. 每组的封面：LIMIT 1
+        List<MediaIndexDatabase.FolderAggregate> aggregates = new ArrayList<>(names.size());
+        for (Map.Entry<String, String[]> entry : names.entrySet()) {
+            MediaPathIndex latest = queryLatestMediaPath(context, groupBy, entry.getKey());
+            if (latest.getLiveCount() == 0) continue;
+
+            String[] name = entry.getValue();
+            aggregates.add(new MediaIndexDatabase.FolderAggregate(name[0], name[1], name[2],
+                    counts.get(entry.getKey()), latest.getDateTaken(0), latest.getId(0), latest.getDateModified(0),
+                    latest.getMimeType(0), latest.getMediaType(0)));
+        }
+        return aggregates;
+    }
+
+    /**
+     * {@link MediaStore#getVersion(Context)}, "" below api 29
+     */
+    private String getMediaStoreVersion(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return "";
+        }
+        return MediaStore.getVersion(context);
+    }
+
     /**
      * get all media path
      */
-    private void collectAllMediaPaths(Context context, List<MediaItemPath> result) {
+    private void collectAllMediaPaths(Context context, MediaPathIndex result) {
 
         // image & video
         Uri[] uris = new Uri[]{
                 MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
                 MediaStore.Video.Media.EXTERNAL_CONTENT_URI
         };
+        byte[] mediaTypes = new byte[]{MediaPathIndex.MEDIA_TYPE_IMAGE, MediaPathIndex.MEDIA_TYPE_VIDEO};
+
+        // 各 uri 并发查询到各自的索引，再按 uri 顺序合并
+        List<Callable<MediaPathIndex>> scans = new ArrayList<>();
+        for (int i = 0; i < uris.length; i++) {
+            Uri uri = uris[i];
+            byte mediaType = mediaTypes[i];
+            scans.add(() -> {
+                MediaPathIndex paths = new MediaPathIndex();
+                queryMediaPaths(context, uri, mediaType, null, null, paths);
+                return paths;
+            });
+        }
+        for (MediaPathIndex paths : executors.invokeScans(scans)) {
+            if (paths != null) {
+                result.addAll(paths);
+            }
+        }
+    }
 
+    /**
+     * @param queryUri  uri to query, may be a single volume uri (eg: images of "external_primary")
+     * @param mediaType {@link MediaPathIndex#MEDIA_TYPE_IMAGE} / {@link MediaPathIndex#MEDIA_TYPE_VIDEO},
+     *                  item uris are always built on the EXTERNAL uri so they are identical between full scan and sync
+     */
+    private void queryMediaPaths(Context context, Uri queryUri, byte mediaType,
+                                 String selection, String[] selectionArgs, MediaPathIndex result) {
         // params to be query
         String[] projection = new String[]{
                 MediaStore.MediaColumns._ID,
                 MediaStore.MediaColumns.BUCKET_ID,
-                MediaStore.MediaColumns.BUCKET_DISPLAY_NAME,
                 MediaStore.MediaColumns.RELATIVE_PATH,
                 MediaStore.MediaColumns.DATE_TAKEN,
+                MediaStore.MediaColumns.DATE_MODIFIED,
                 MediaStore.MediaColumns.MIME_TYPE
         };
 
-        for (Uri uri : uris) {
-            try (Cursor cursor = context.getContentResolver().query(uri, projection, null, null, null)) {
-                if (cursor == null) continue;
-
-                int idCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID);
-                int bucketIdCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.BUCKET_ID);
-                int bucketNameCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.BUCKET_DISPLAY_NAME);
-                int relPathCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.RELATIVE_PATH);
-                int dateTakenCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_TAKEN);
-                int mimeTypeCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE);
-
-                while (cursor.moveToNext()) {
-                    long id = cursor.getLong(idCol);
-                    String bucketId = cursor.getString(bucketIdCol);
-                    String bucketName = cursor.getString(bucketNameCol);
-                    String relPath = cursor.getString(relPathCol);
-                    long dateTaken = cursor.getLong(dateTakenCol);
-                    String mimeType = cursor.getString(mimeTypeCol);
-                    Uri fileUri = ContentUris.withAppendedId(uri, id);
-
-                    MediaItemPath path = new MediaItemPath();
-                    path.bucketId = bucketId;
-                    path.bucketName = bucketName;
-                    path.relativePath = relPath;
-                    path.uri = fileUri;
-                    path.dateTaken = dateTaken;
-                    path.mimeType = mimeType;
-                    result.add(path);
-                }
+        try (Cursor cursor = context.getContentResolver().query(queryUri, projection, selection, selectionArgs, null)) {
+            if (cursor == null) return;
+
+            int idCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID);
+            int bucketIdCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.BUCKET_ID);
+            int relPathCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.RELATIVE_PATH);
+            int dateTakenCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_TAKEN);
+            int dateModifiedCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED);
+            int mimeTypeCol = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE);
+
+            while (cursor.moveToNext()) {
+                result.add(cursor.getLong(idCol),
+                        cursor.getString(bucketIdCol),
+                        cursor.getString(relPathCol),
+                        cursor.getLong(dateTakenCol),
+                        cursor.getLong(dateModifiedCol),
+                        cursor.getString(mimeTypeCol),
+                        mediaType);
             }
+        } catch (SecurityException e) {
+            e.printStackTrace();
         }
     }
 
@@ -117,109 +356,74 @@ public class GalleryViewModel extends ViewModel {
      * └─ DCIM_CHILD (虚拟文件夹)
      * └─ root 下的 xx.jpg
      *
+     * @param state holds the scanned {@link MediaPathIndex}, receives the folder nodes for the following incremental syncs
      * @return list media data
      */
-    private List<MediaFolderBean> buildFolderTree(List<MediaItemPath> allPaths) {
-        Map<String, MediaFolderBean> folderMap = new HashMap<>();
-        // 记录每个目录下直接文件数量（不含子目录）
-        Map<String, Integer> directCountMap = new HashMap<>();
-        // 记录每个目录下最新的一条媒体，用于虚拟文件夹封面
-        Map<String, MediaItemPath> directLatestMap = new HashMap<>();
-
-        for (MediaItemPath item : allPaths) {
-            if (item.relativePath == null) continue;
-
-            // 1) 先按 segments 构建各级节点（和原来逻辑一致）
-            String[] segments = item.relativePath.split("/"); // eg: "DCIM/Camera/"
-            StringBuilder currentPath = new StringBuilder();
-            String parentPath = "";
-
-            for (String segment : segments) {
-                if (segment.isEmpty()) continue;
-
-                if (!(currentPath.length() <= 0)) { // isNotEmpty
-                    currentPath.append("/");
-                }
-                currentPath.append(segment);
-
-                String pathKey = currentPath.toString();
-
-                MediaFolderBean folder = folderMap.get(pathKey);
-                if (folder == null) {
-                    folder = new MediaFolderBean();
-                    folder.bucketId = item.bucketId;
-                    folder.bucketName = segment;
-                    folder.path = pathKey;
-                    folder.parentPath = parentPath;
-                    folder.itemCount = 0;
-                    folder.children = folder.children == null ? new ArrayList<>() : folder.children;
-                    folderMap.put(pathKey, folder);
-
-                    // 建立父子关系
-                    if (!parentPath.isEmpty()) {
-                        MediaFolderBean parent = folderMap.get(parentPath);
-                        if (parent != null) {
-                            parent.children.add(folder);
-                        }
-                    }
-                }
-
-                // 更新封面/计数（此计数含子目录的文件，会在每个祖先节点都累加）
-                folder.itemCount++;
-                if (item.dateTaken > folder.latestDateTaken) {
-                    folder.latestDateTaken = item.dateTaken;
-                    folder.coverUri = item.uri;
-                    folder.mimeType = item.mimeType;
-                }
-
-                parentPath = pathKey;
-            }
-
-            // 2) 统计“直接在该目录（relativePath）下”的文件（不包括子目录）
-            // relativePath 通常以 "/" 结尾，例如 "LLC/" => 去掉尾部 "/"
-            String folderKey = item.relativePath.replaceAll("/$", ""); // e.g. "LLC" or "DCIM/Camera"
-            // 累加直接文件数量
-            Integer orDefault = directCountMap.getOrDefault(folderKey, 0);
-            if (orDefault == null) {
-                orDefault = 0;
-            }
-            directCountMap.put(folderKey, orDefault + 1);
-            // 更新该目录下的最新文件（用于虚拟文件夹封面）
-            MediaItemPath existing = directLatestMap.get(folderKey);
-            if (existing == null || item.dateTaken > existing.dateTaken) {
-                directLatestMap.put(folderKey, item);
+    private List<MediaFolderBean> buildFolderTree(FolderTreeState state) {
+        MediaPathIndex index = state.index;
+        for (int row = 0; row < index.size(); row++) {
+            if (!index.isRemoved(row)) {
+                state.trie.add(index, row);
             }
         }
 
-        // 处理特殊目录与虚拟子文件夹（需要 directCountMap、directLatestMap 信息）
-        handleSpecialFolders(folderMap, directCountMap, directLatestMap);
+        // 处理特殊目录与虚拟子文件夹（需要每个目录的直接文件信息）
+        state.rootFolders = handleSpecialFolders(state.trie);
+
+        return collectRootFolders(state);
+    }
 
-        // 返回根目录列表（没有 parent 的），按名字排序
-        return folderMap.values()
+    /**
+     * 返回根目录列表（没有 parent 的），按名字排序
+     */
+    private List<MediaFolderBean> collectRootFolders(FolderTreeState state) {
+        return state.rootFolders
                 .stream()
-                .filter(f -> f.parentPath == null || f.parentPath.isEmpty())
                 .sorted(Comparator.comparing(f -> f.bucketName == null ? "" : f.bucketName))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Add one row of changes to the index and the folder tree, updates count / cover of every ancestor,
+     * see {@link MediaFolderTrie#add}
+     */
+    private void addToFolderTree(FolderTreeState state, MediaPathIndex changes, int changeRow) {
+        int row = state.index.add(changes, changeRow);
+        state.trie.add(state.index, row);
+    }
+
+    /**
+     * Remove one row from the folder tree and the index, the reverse of {@link #addToFolderTree}
+     */
+    private void removeFromFolderTree(FolderTreeState state, int row) {
+        state.trie.remove(state.index, row);
+        state.index.remove(row);
+    }
+
     /**
      * 处理特殊目录并创建虚拟子文件夹
+     * <p>
+     * 先 {@link MediaFolderTrie#publish()} 生成新的 folder bean（含计数/封面/children），只修改这些新 bean，
+     * 已 post 给 UI 的 bean 不会再被写入，所以全量构建和增量同步后都可以直接调用
      *
-     * @param folderMap       已构建的文件夹节点 Map（key = folder.path）
-     * @param directCountMap  每个目录下直接文件的数量（key 与 folder.path 对应）
-     * @param directLatestMap 每个目录下最新的 MediaItemPath（用于封面）
+     * @param trie 已构建的文件夹树
+     * @return the new top level folders
      */
-    private void handleSpecialFolders(Map<String, MediaFolderBean> folderMap,
-                                      Map<String, Integer> directCountMap,
-                                      Map<String, MediaItemPath> directLatestMap) {
+    private List<MediaFolderBean> handleSpecialFolders(MediaFolderTrie trie) {
+        // 3. 确保 Movies 文件夹存在（即使手机没有），没有直接文件，下面的循环中 hasMediaInRoot = false
+        if (trie.getNode("Movies") == null) {
+            trie.ensureRootFolder("Movies");
+        }
 
+        Map<MediaFolderTrie.Node, MediaFolderBean> folders = trie.publish();
+        for (Map.Entry<MediaFolderTrie.Node, MediaFolderBean> entry : folders.entrySet()) {
+            MediaFolderTrie.Node node = entry.getKey();
+            MediaFolderBean folder = entry.getValue();
+            // 封面缩略图按封面的 DATE_MODIFIED 缓存（与媒体列表同一个 key）
+            GalleryThumbnailLoader.putCoverVersion(node.coverId, node.coverDateModified);
 
-        for (MediaFolderBean folder : folderMap.values()) {
             // 标注该目录是否有直接媒体文件（不统计子目录）
-            Integer directCount = directCountMap.getOrDefault(folder.path, 0);
-            if (directCount == null) {
-                directCount = 0;
-            }
+            int directCount = node.directCount;
             folder.hasMediaInRoot = directCount > 0;
             String bucketName = folder.bucketName;
 
@@ -236,19 +440,18 @@ public class GalleryViewModel extends ViewModel {
                 virtualChild.isVirtual = true;
                 virtualChild.hasMediaInRoot = true;
 
-                // 使用 directCountMap 填充数量（只统计该目录根下直接文件数量）
+                // 使用 directCount 填充数量（只统计该目录根下直接文件数量）
                 virtualChild.itemCount = directCount;
 
-                // 使用 directLatestMap 填充封面信息
-                MediaItemPath latest = directLatestMap.get(folder.path);
-                if (latest != null) {
-                    virtualChild.coverUri = latest.uri;
-                    virtualChild.latestDateTaken = latest.dateTaken;
-                    virtualChild.mimeType = latest.mimeType;
+                // 使用 directLatest 填充封面信息
+                if (node.directLatestId >= 0) {
+                    virtualChild.coverUri = node.getDirectLatestUri();
+                    virtualChild.latestDateTaken = node.directLatestDateTaken;
+                    GalleryThumbnailLoader.putCoverVersion(node.directLatestId, node.directLatestDateModified);
+                    virtualChild.mimeType = node.directLatestMimeType;
                 }
 
                 // 把虚拟子文件夹放到 children 列表（加在首位更显眼，可按需调整）
-                if (folder.children == null) folder.children = new ArrayList<>();
                 folder.children.add(0, virtualChild);
             }
 
@@ -259,21 +462,234 @@ public class GalleryViewModel extends ViewModel {
                 folder.children.clear();
                 folder.hasMediaInRoot = true;
                 // 如果 folder.itemCount 设置为 directCount（只统计根），可以使用：
-                // folder.itemCount = directCountMap.getOrDefault(folder.path, folder.itemCount);
+                // folder.itemCount = node.directCount;
+            }
+        }
+
+        return trie.getRootFolders(folders);
+    }
+
+    /**
+     * Apply only the MediaStore rows added / changed / deleted since the last sync to {@link #folderTreeState}
+     *
+     * @return false: no usable synced state (first load, api &lt; 30, MediaStore version or volumes changed),
+     * caller must run a full scan
+     */
+    private boolean syncAlbumFolders(Context context) {
+        FolderTreeState state = folderTreeState;
+        if (state == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return false;
+        }
+        // 数据库被重建（eg: 清除媒体存储数据）, generation 不再可比
+        if (!MediaStore.getVersion(context).equals(state.mediaStoreVersion)) {
+            return false;
+        }
+        Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+        if (!volumes.equals(state.generations.keySet())) {
+            return false;
+        }
+
+        // 1. rows added or changed since the synced generation, per volume
+        Map<String, Long> generations = new HashMap<>();
+        MediaPathIndex changedPaths = new MediaPathIndex();
+        for (String volume : volumes) {
+            long generation = MediaStore.getGeneration(context, volume);
+            generations.put(volume, generation);
+            long syncedGeneration = state.generations.get(volume);
+            if (generation == syncedGeneration) continue;
+
+            String selection = MediaStore.MediaColumns.GENERATION_MODIFIED + ">?";
+            String[] selectionArgs = new String[]{String.valueOf(syncedGeneration)};
+            queryMediaPaths(context, MediaStore.Images.Media.getContentUri(volume),
+                    MediaPathIndex.MEDIA_TYPE_IMAGE, selection, selectionArgs, changedPaths);
+            queryMediaPaths(context, MediaStore.Video.Media.getContentUri(volume),
+                    MediaPathIndex.MEDIA_TYPE_VIDEO, selection, selectionArgs, changedPaths);
+        }
+
+        for (int row = 0; row < changedPaths.size(); row++) {
+            if (changedPaths.isRemoved(row)) continue;
+            // 变更 = 旧记录移除 + 新记录加入（可能换了目录）
+            int old = state.index.rowOf(changedPaths.getId(row));
+            if (old >= 0) {
+                removeFromFolderTree(state, old);
+            }
+            addToFolderTree(state, changedPaths, row);
+        }
+
+        // 2. deleted rows（删除不会出现在 generation 查询结果中）
+        boolean removed = removeDeletedMediaPaths(context, state);
+
+        if (changedPaths.getLiveCount() > 0 || removed) {
+            resolveDirtyCovers(context, state.trie);
+            state.rootFolders = handleSpecialFolders(state.trie);
+            state.index.compactIfNeeded();
+            state.snapshotStale = true;
+        }
+        state.generations.putAll(generations);
+        return true;
+    }
+
+    /**
+     * Record MediaStore version / generation of every external volume as the sync point of a full scan
+     */
+    private void recordSyncPoint(Context context, FolderTreeState state) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return;
+
+        state.mediaStoreVersion = MediaStore.getVersion(context);
+        for (String volume : MediaStore.getExternalVolumeNames(context)) {
+            state.generations.put(volume, MediaStore.getGeneration(context, volume));
+        }
+    }
+
+    /**
+     * Compare the provider row count with the synced items, only diff the ids when they differ
+     *
+     * @return true if any item was removed
+     */
+    private boolean removeDeletedMediaPaths(Context context, FolderTreeState state) {
+        Uri[] uris = new Uri[]{
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+        };
+        String[] projection = new String[]{MediaStore.MediaColumns._ID};
+
+        Cursor[] cursors = new Cursor[uris.length];
+        try {
+            int providerCount = 0;
+            for (int i = 0; i < uris.length; i++) {
+                cursors[i] = context.getContentResolver().query(uris[i], projection, null, null, null);
+                if (cursors[i] != null) {
+                    providerCount += cursors[i].getCount();
+                }
+            }
+            if (providerCount == state.index.getLiveCount()) {
+                return false;
+            }
+
+            long[] providerIds = new long[providerCount];
+            int size = 0;
+            for (Cursor cursor : cursors) {
+                if (cursor == null) continue;
+                while (cursor.moveToNext() && size < providerIds.length) {
+                    providerIds[size++] = cursor.getLong(0);
+                }
+            }
+            Arrays.sort(providerIds, 0, size);
+
+            MediaPathIndex index = state.index;
+            boolean removed = false;
+            for (int row = 0; row < index.size(); row++) {
+                if (!index.isRemoved(row) && Arrays.binarySearch(providerIds, 0, size, index.getId(row)) < 0) {
+                    removeFromFolderTree(state, row);
+                    removed = true;
+                }
+            }
+            return removed;
+        } catch (SecurityException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            for (Cursor cursor : cursors) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-resolve covers that pointed to a removed item
+     * <p>
+     * direct latest: one `LIMIT 1` query on that relative path; folder cover: see {@link MediaFolderTrie#finishUpdate()}
+     */
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private void resolveDirtyCovers(Context context, MediaFolderTrie trie) {
+        for (MediaFolderTrie.Node node : trie.getDirtyDirectNodes()) {
+            MediaPathIndex latest = queryLatestMediaPath(context, MediaStore.MediaColumns.RELATIVE_PATH,
+                    node.path + "/");
+            if (latest.getLiveCount() > 0) {
+                node.setDirectLatest(latest.getId(0), latest.getDateTaken(0), latest.getDateModified(0),
+                        latest.getMimeType(0), latest.getMediaType(0));
             }
         }
+        trie.finishUpdate();
+    }
 
-        // 3. 确保 Movies 文件夹存在（即使手机没有）
-        if (!folderMap.containsKey("Movies")) {
-            MediaFolderBean moviesFolder = new MediaFolderBean();
-            moviesFolder.bucketName = "Movies";
-            moviesFolder.path = "Movies";
-            moviesFolder.parentPath = "";
-            moviesFolder.itemCount = 0;
-            moviesFolder.children = new ArrayList<>();
-            moviesFolder.hasMediaInRoot = false;
-            folderMap.put("Movies", moviesFolder);
+    /**
+     * Newest image or video of one folder
+     *
+     * @param column eg: {@link MediaStore.MediaColumns#RELATIVE_PATH} with value "DCIM/Camera/" (direct media only),
+     *               or {@link MediaStore.MediaColumns#BUCKET_ID}
+     */
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private MediaPathIndex queryLatestMediaPath(Context context, String column, String value) {
+        Uri[] uris = new Uri[]{
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+        };
+        byte[] mediaTypes = new byte[]{MediaPathIndex.MEDIA_TYPE_IMAGE, MediaPathIndex.MEDIA_TYPE_VIDEO};
+        String[] projection = new String[]{
+                MediaStore.MediaColumns._ID,
+                MediaStore.MediaColumns.BUCKET_ID,
+                MediaStore.MediaColumns.RELATIVE_PATH,
+                MediaStore.MediaColumns.DATE_TAKEN,
+                MediaStore.MediaColumns.DATE_MODIFIED,
+                MediaStore.MediaColumns.MIME_TYPE
+        };
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, column + "=?");
+        queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, new String[]{value});
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, MediaStore.MediaColumns.DATE_TAKEN + " DESC");
+        queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, 1);
+
+        // 至多一行：row 0 = 最新
+        MediaPathIndex latest = new MediaPathIndex(1);
+        for (int i = 0; i < uris.length; i++) {
+            try (Cursor cursor = context.getContentResolver().query(uris[i], projection, queryArgs, null)) {
+                if (cursor == null || !cursor.moveToFirst()) continue;
+
+                long dateTaken = cursor.getLong(3);
+                if (latest.getLiveCount() > 0) {
+                    if (dateTaken <= latest.getDateTaken(0)) continue;
+                    latest = new MediaPathIndex(1);
+                }
+                latest.add(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                        dateTaken, cursor.getLong(4), cursor.getString(5), mediaTypes[i]);
+            } catch (SecurityException e) {
+                e.printStackTrace();
+            }
         }
+        return latest;
+    }
+
+    /**
+     * Folder nodes of the last full scan / sync, only accessed on the folder lane
+     */
+    private static class FolderTreeState {
+        final MediaFolderTrie trie = new MediaFolderTrie();
+        /**
+         * every synced item (also those without relative path)
+         */
+        final MediaPathIndex index = new MediaPathIndex();
+
+        /**
+         * {@link MediaStore#getVersion(Context)} at sync time
+         */
+        String mediaStoreVersion;
+        /**
+         * {@link MediaStore#getGeneration(Context, String)} of every external volume at sync time
+         */
+        final Map<String, Long> generations = new HashMap<>();
+
+        /**
+         * top level folders of the last {@link MediaFolderTrie#publish()}, already posted: read only
+         */
+        List<MediaFolderBean> rootFolders = new ArrayList<>();
+
+        /**
+         * true: the tree changed since it was last written to {@link AlbumFolderSnapshot}
+         */
+        boolean snapshotStale;
     }
 
     /**
@@ -300,6 +716,7 @@ public class GalleryViewModel extends ViewModel {
 
     // region [Album Special] CAMERA DCIM ...
     private final SingleLiveEvent<List<MediaFolderBean>> specialFoldersLiveData = new SingleLiveEvent<>();
+    private final AtomicBoolean specialFoldersQueued = new AtomicBoolean();
 
     public SingleLiveEvent<List<MediaFolderBean>> getSpecialFoldersLiveData() {
         return specialFoldersLiveData;
@@ -310,8 +727,13 @@ public class GalleryViewModel extends ViewModel {
             specialFoldersLiveData.postValue(new ArrayList<>());
             return;
         }
+        // 已有排队中的加载，合并为一次
+        if (!specialFoldersQueued.compareAndSet(false, true)) {
+            return;
+        }
 
-        executorService.execute(() -> {
+        executors.folderExecutor.execute(() -> {
+            specialFoldersQueued.set(false);
             Map<String, MediaFolderBean> albumMap = new HashMap<>();
             // 图片
             String[] imageProjection = new String[]{
@@ -320,7 +742,8 @@ public class GalleryViewModel extends ViewModel {
                     MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
                     MediaStore.Images.Media.DATE_TAKEN,
                     MediaStore.Images.Media.MIME_TYPE,
-                    MediaStore.Images.Media.RELATIVE_PATH
+                    MediaStore.Images.Media.RELATIVE_PATH,
+                    MediaStore.Images.Media.DATE_MODIFIED
             };
             Uri imageUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
             // 视频
@@ -330,12 +753,39 @@ public class GalleryViewModel extends ViewModel {
                     MediaStore.Video.Media.BUCKET_DISPLAY_NAME,
                     MediaStore.Video.Media.DATE_TAKEN,
                     MediaStore.Video.Media.MIME_TYPE,
-                    MediaStore.Video.Media.RELATIVE_PATH
+                    MediaStore.Video.Media.RELATIVE_PATH,
+                    MediaStore.Video.Media.DATE_MODIFIED
             };
             Uri videoUri = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
 
-            queryMediaStore(context, imageUri, imageProjection, albumMap);
-            queryMediaStore(context, videoUri, videoProjection, albumMap);
+            // 按 bucket 聚合：本地媒体索引已同步时不查询 MediaStore，否则由 MediaStore GROUP BY（api 30+）
+            MediaIndexDatabase mediaIndex = MediaIndexDatabase.getInstance(context);
+            List<MediaIndexDatabase.FolderAggregate> aggregates = mediaIndex.isSynced()
+                    ? mediaIndex.aggregateByBucket()
+                    : queryMediaStoreAggregates(context, MediaStore.MediaColumns.BUCKET_ID);
+            if (aggregates != null) {
+                for (MediaIndexDatabase.FolderAggregate aggregate : aggregates) {
+                    albumMap.put(aggregate.bucketId, toFolderBean(aggregate));
+                }
+            } else {
+                // api < 30 或 MediaProvider 不支持聚合：图片、视频并发查询，再按 bucketId 合并
+                List<Callable<Map<String, MediaFolderBean>>> scans = new ArrayList<>();
+                scans.add(() -> {
+                    Map<String, MediaFolderBean> imageMap = new HashMap<>();
+                    queryMediaStore(context, imageUri, imageProjection, imageMap);
+                    return imageMap;
+                });
+                scans.add(() -> {
+                    Map<String, MediaFolderBean> videoMap = new HashMap<>();
+                    queryMediaStore(context, videoUri, videoProjection, videoMap);
+                    return videoMap;
+                });
+                for (Map<String, MediaFolderBean> scanMap : executors.invokeScans(scans)) {
+                    if (scanMap != null) {
+                        mergeBucketFolders(albumMap, scanMap);
+                    }
+                }
+            }
 
             // 过滤出特定一级目录（相对路径包含这些关键字）
             List<MediaFolderBean> specialFolders = albumMap.values()
@@ -363,6 +813,35 @@ public class GalleryViewModel extends ViewModel {
         });
     }
 
+    private static MediaFolderBean toFolderBean(MediaIndexDatabase.FolderAggregate aggregate) {
+        MediaFolderBean folder = new MediaFolderBean(aggregate.bucketId, aggregate.bucketName,
+                aggregate.getCoverUri(), aggregate.count);
+        folder.latestDateTaken = aggregate.latestDateTaken;
+        GalleryThumbnailLoader.putCoverVersion(aggregate.latestId, aggregate.latestDateModified);
+        folder.mimeType = aggregate.latestMimeType;
+        return folder;
+    }
+
+    /**
+     * Merge the bucket folders of another uri into albumMap: counts are added, the newest cover wins
+     */
+    private void mergeBucketFolders(Map<String, MediaFolderBean> albumMap, Map<String, MediaFolderBean> other) {
+        for (Map.Entry<String, MediaFolderBean> entry : other.entrySet()) {
+            MediaFolderBean folder = albumMap.get(entry.getKey());
+            MediaFolderBean otherFolder = entry.getValue();
+            if (folder == null) {
+                albumMap.put(entry.getKey(), otherFolder);
+                continue;
+            }
+            folder.itemCount += otherFolder.itemCount;
+            if (otherFolder.latestDateTaken > folder.latestDateTaken) {
+                folder.latestDateTaken = otherFolder.latestDateTaken;
+                folder.coverUri = otherFolder.coverUri;
+                folder.mimeType = otherFolder.mimeType;
+            }
+        }
+    }
+
     // endregion
 
     // region [Album folder Deprecated]
@@ -378,7 +857,10 @@ public class GalleryViewModel extends ViewModel {
         final int DATE_TAKEN_INDEX = 3;
         final int MIME_TYPE_INDEX = 4;
         final int RELATIVE_PATH_INDEX = 5;
+        final int DATE_MODIFIED_INDEX = 6;
 
+        // bucketId -> {封面 id, DATE_MODIFIED}，扫描结束后登记，不逐行登记
+        Map<String, long[]> covers = new HashMap<>();
         Cursor cursor = null;
         try {
             cursor = context.getContentResolver().query(
@@ -395,6 +877,7 @@ public class GalleryViewModel extends ViewModel {
                 int dateTakenColumn = cursor.getColumnIndexOrThrow(projection[DATE_TAKEN_INDEX]);
                 int mimeTypeColumn = cursor.getColumnIndexOrThrow(projection[MIME_TYPE_INDEX]);
                 int relativePathColum = cursor.getColumnIndexOrThrow(projection[RELATIVE_PATH_INDEX]);
+                int dateModifiedColumn = cursor.getColumnIndexOrThrow(projection[DATE_MODIFIED_INDEX]);
 
                 while (cursor.moveToNext()) {
                     long mediaId = cursor.getLong(idColumn);
@@ -402,6 +885,7 @@ public class GalleryViewModel extends ViewModel {
                     String bucketName = cursor.getString(bucketNameColumn);
                     long dateTaken = cursor.getLong(dateTakenColumn);
                     String mimeType = cursor.getString(mimeTypeColumn);
+                    long dateModified = cursor.getLong(dateModifiedColumn);
 
                     Uri contentUri = ContentUris.withAppendedId(uri, mediaId);
 
@@ -411,12 +895,20 @@ public class GalleryViewModel extends ViewModel {
                         // 更新文件夹最新时间
                         if (dateTaken > folder.latestDateTaken) {
                             folder.latestDateTaken = dateTaken;
+                            long[] cover = covers.get(bucketId);
+                            if (cover == null) {
+                                covers.put(bucketId, new long[]{mediaId, dateModified});
+                            } else {
+                                cover[0] = mediaId;
+                                cover[1] = dateModified;
+                            }
                             folder.coverUri = contentUri; // 覆盖最新封面
                             folder.mimeType = mimeType;
                         }
                     } else {
                         folder = new MediaFolderBean(bucketId, bucketName, contentUri, 1);
                         folder.latestDateTaken = dateTaken;
+                        covers.put(bucketId, new long[]{mediaId, dateModified});
                         folder.mimeType = mimeType;
                         albumMap.put(bucketId, folder);
                     }
@@ -429,11 +921,110 @@ public class GalleryViewModel extends ViewModel {
                 cursor.close();
             }
         }
+        for (long[] cover : covers.values()) {
+            GalleryThumbnailLoader.putCoverVersion(cover[0], cover[1]);
+        }
     }
     // endregion
 
     // region [Album Item] 获取相册文件夹内的 媒体列表
     private final MutableLiveData<List<MediaItemBean>> mediaItemsLiveData = new MutableLiveData<>();
+    private final MutableLiveData<MediaItemPage> mediaItemsPageLiveData = new MutableLiveData<>();
+    private final MutableLiveData<MediaTimelineIndex> mediaTimelineLiveData = new MutableLiveData<>();
+    /**
+     * latest request of each LiveData, a new request cancels the previous one
+     */
+    private final AtomicReference<LoadRequest> mediaItemsRequest = new AtomicReference<>();
+    private final AtomicReference<LoadRequest> mediaItemsPageRequest = new AtomicReference<>();
+    /**
+     * bucket / list of the last posted {@link #loadMediaItems} result, base of the observer deltas.
+     * Only accessed on the item lane.
+     */
+    private String loadedItemsBucketId;
+    private List<MediaItemBean> loadedItems;
+    private MediaTimelineIndex loadedTimeline;
+
+    // 图片
+    private static final String[] IMAGE_ITEM_PROJECTION = new String[]{
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.BUCKET_ID,
+            MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
+            MediaStore.Images.Media.MIME_TYPE,
+            MediaStore.Images.Media.DATE_TAKEN,
+            MediaStore.Images.Media.DATE_MODIFIED,
+            MediaStore.Images.Media.SIZE,
+            MediaStore.Images.Media.WIDTH,
+            MediaStore.Images.Media.HEIGHT,
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.IS_FAVORITE,// 收藏 (调查,能否根据收藏筛选, 2,能否通过API设置)
+            MediaStore.Images.Media.GENRE,// 流派
+            MediaStore.Images.Media.ORIENTATION,// 旋转角度
+
+    };
+
+    // 视频
+    private static final String[] VIDEO_ITEM_PROJECTION = new String[]{
+            MediaStore.Video.Media._ID,
+            MediaStore.Video.Media.BUCKET_ID,
+            MediaStore.Video.Media.BUCKET_DISPLAY_NAME,
+            MediaStore.Video.Media.MIME_TYPE,
+            MediaStore.Video.Media.DATE_TAKEN,
+            MediaStore.Video.Media.DATE_MODIFIED,
+            MediaStore.Video.Media.SIZE,
+            MediaStore.Video.Media.WIDTH,
+            MediaStore.Video.Media.HEIGHT,
+            MediaStore.Images.Media.DATA,
+
+            MediaStore.Images.Media.IS_FAVORITE,// 收藏 (调查,能否根据收藏筛选, 2,能否通过API设置)
+            MediaStore.Images.Media.GENRE,// 流派
+            MediaStore.Images.Media.ORIENTATION,// 旋转角度
+
+            MediaStore.Video.Media.DURATION // 视频时长
+    };
+
+    // 图片 + 视频（Files 表，窗口分页按 offset 读取）
+    private static final String[] FILE_ITEM_PROJECTION = new String[]{
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Files.FileColumns.BUCKET_ID,
+            MediaStore.Files.FileColumns.BUCKET_DISPLAY_NAME,
+            MediaStore.Files.FileColumns.MIME_TYPE,
+            MediaStore.Files.FileColumns.DATE_TAKEN,
+            MediaStore.Files.FileColumns.DATE_MODIFIED,
+            MediaStore.Files.FileColumns.SIZE,
+            MediaStore.Files.FileColumns.WIDTH,
+            MediaStore.Files.FileColumns.HEIGHT,
+            MediaStore.Files.FileColumns.DATA,
+
+            MediaStore.Files.FileColumns.IS_FAVORITE,
+            MediaStore.Files.FileColumns.GENRE,
+            MediaStore.Files.FileColumns.ORIENTATION,
+
+            MediaStore.Files.FileColumns.DURATION, // 图片为 NULL
+            MediaStore.Files.FileColumns.MEDIA_TYPE // 每行按类型生成 Images / Video uri
+    };
+
+    private static final String FILE_ITEM_SELECTION = MediaStore.Files.FileColumns.BUCKET_ID + "=? AND "
+            + MediaStore.Files.FileColumns.MEDIA_TYPE + " IN ("
+            + MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE + "," + MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO + ")";
+
+    /**
+     * DATE_TAKEN 为 NULL 的记录（eg: 下载的图片）读取时为 0，排序与 keyset 条件都按 0 处理，与读取出的 bean 一致
+     */
+    private static final String MEDIA_ITEM_DATE_TAKEN = "COALESCE(" + MediaStore.MediaColumns.DATE_TAKEN + ",0)";
+
+    /**
+     * 按拍摄时间倒序, 相同拍摄时间按 id 倒序（keyset 分页需要唯一且稳定的顺序）
+     */
+    private static final String MEDIA_ITEM_SORT_ORDER =
+            MEDIA_ITEM_DATE_TAKEN + " DESC, " + MediaStore.MediaColumns._ID + " DESC";
+
+    /**
+     * {@link #MEDIA_ITEM_SORT_ORDER} for loaded beans
+     */
+    private static final Comparator<MediaItemBean> MEDIA_ITEM_ORDER = (a, b) -> {
+        int result = Long.compare(b.dateTaken, a.dateTaken);
+        return result != 0 ? result : Long.compare(b.id, a.id);
+    };
 
     /**
      * 获取指定文件夹的所有媒体文件
@@ -442,162 +1033,849 @@ public class GalleryViewModel extends ViewModel {
         return mediaItemsLiveData;
     }
 
+    /**
+     * Day / month sections of {@link #getMediaItemsLiveData()}, posted just before each list it describes.
+     * Each value is a copy owned by the main thread.
+     */
+    public LiveData<MediaTimelineIndex> getMediaTimelineLiveData() {
+        return mediaTimelineLiveData;
+    }
+
+    /**
+     * Observe the pages requested by {@link #loadMediaItemsPage}
+     */
+    public LiveData<MediaItemPage> getMediaItemsPageLiveData() {
+        return mediaItemsPageLiveData;
+    }
+
     /**
      * 根据 bucketId 查询文件夹下所有图片和视频
      */
     public void loadMediaItems(Context context, String bucketId) {
         if (context == null || bucketId == null) {
+            cancelRequest(mediaItemsRequest);
             mediaItemsLiveData.postValue(new ArrayList<>());
             return;
         }
 
+        LoadRequest request = startRequest(mediaItemsRequest, bucketId);
+        if (request == null) {
+            // 同一文件夹的加载仍在进行，合并
+            return;
+        }
 
-        executorService.execute(() -> {
-            List<MediaItemBean> mediaItems = new ArrayList<>();
+        executors.itemExecutor.execute(() -> {
+            try {
+                List<MediaItemBean> mediaItems = new ArrayList<>();
+                MediaTimelineIndex timeline = new MediaTimelineIndex();
 
-            // 图片
-            String[] imageProjection = new String[]{
-                    MediaStore.Images.Media._ID,
-                    MediaStore.Images.Media.BUCKET_ID,
-                    MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
-                    MediaStore.Images.Media.MIME_TYPE,
-                    MediaStore.Images.Media.DATE_TAKEN,
-                    MediaStore.Images.Media.DATE_MODIFIED,
-                    MediaStore.Images.Media.SIZE,
-                    MediaStore.Images.Media.WIDTH,
-                    MediaStore.Images.Media.HEIGHT,
-                    MediaStore.Images.Media.DATA,
-                    MediaStore.Images.Media.IS_FAVORITE,// 收藏 (调查,能否根据收藏筛选, 2,能否通过API设置)
-                    MediaStore.Images.Media.GENRE,// 流派
-                    MediaStore.Images.Media.ORIENTATION,// 旋转角度
+                String selection = MediaStore.MediaColumns.BUCKET_ID + "=?";
+                String[] selectionArgs = new String[]{bucketId};
 
-            };
-            Uri imageUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+                // 图片和视频按拍摄时间归并，同时按天分组
+                queryMediaItems(context, selection, selectionArgs, 0, request.cancellationSignal, mediaItems, timeline);
 
-            // 视频
-            String[] videoProjection = new String[]{
-                    MediaStore.Video.Media._ID,
-                    MediaStore.Video.Media.BUCKET_ID,
-                    MediaStore.Video.Media.BUCKET_DISPLAY_NAME,
-                    MediaStore.Video.Media.MIME_TYPE,
-                    MediaStore.Video.Media.DATE_TAKEN,
-                    MediaStore.Video.Media.DATE_MODIFIED,
-                    MediaStore.Video.Media.SIZE,
-                    MediaStore.Video.Media.WIDTH,
-                    MediaStore.Video.Media.HEIGHT,
-                    MediaStore.Images.Media.DATA,
+                if (mediaItemsRequest.get() == request) {
+                    loadedItemsBucketId = bucketId;
+                    loadedItems = mediaItems;
+                    loadedTimeline = timeline;
+                    mediaTimelineLiveData.postValue(timeline.copy());
+                    mediaItemsLiveData.postValue(mediaItems);
+                }
+            } catch (OperationCanceledException ignored) {
+                // 已被新的请求取代
+            } finally {
+                request.finished = true;
+            }
+        });
+    }
 
-                    MediaStore.Images.Media.IS_FAVORITE,// 收藏 (调查,能否根据收藏筛选, 2,能否通过API设置)
-                    MediaStore.Images.Media.GENRE,// 流派
-                    MediaStore.Images.Media.ORIENTATION,// 旋转角度
+    /**
+     * Load the first page of a bucket, see {@link #loadMediaItemsPage(Context, String, long, long, int)}
+     */
+    public void loadMediaItemsPage(Context context, String bucketId, int pageSize) {
+        loadMediaItemsPage(context, bucketId, Long.MAX_VALUE, Long.MAX_VALUE, pageSize);
+    }
 
-                    MediaStore.Video.Media.DURATION // 视频时长
-            };
-            Uri videoUri = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+    /**
+     * 分页查询文件夹下的图片和视频（keyset 分页）, result is posted to {@link #getMediaItemsPageLiveData()}
+     * <p>
+     * Only rows sorting after the anchor are read: (DATE_TAKEN, _ID) &lt; (anchorDateTaken, anchorId),
+     * so every page costs O(pageSize) no matter how deep the user has scrolled.
+     *
+     * @param anchorDateTaken {@link MediaItemPage#anchorDateTaken} of the previous page, Long.MAX_VALUE for the first page
+     * @param anchorId        {@link MediaItemPage#anchorId} of the previous page, Long.MAX_VALUE for the first page
+     */
+    public void loadMediaItemsPage(Context context, String bucketId,
+                                   long anchorDateTaken, long anchorId, int pageSize) {
+        if (context == null || bucketId == null || pageSize <= 0) {
+            cancelRequest(mediaItemsPageRequest);
+            mediaItemsPageLiveData.postValue(new MediaItemPage(bucketId, new ArrayList<>(),
+                    anchorDateTaken, anchorId, false, anchorDateTaken == Long.MAX_VALUE));
+            return;
+        }
 
-            // 查询图片
-            queryMediaItems(context, imageUri, imageProjection, bucketId, mediaItems, false);
-            // 查询视频
-            queryMediaItems(context, videoUri, videoProjection, bucketId, mediaItems, true);
+        LoadRequest request = startRequest(mediaItemsPageRequest,
+                bucketId + "/" + anchorDateTaken + "/" + anchorId + "/" + pageSize);
+        if (request == null) {
+            // 同一页的加载仍在进行，合并
+            return;
+        }
 
-            mediaItemsLiveData.postValue(mediaItems);
+        executors.itemExecutor.execute(() -> {
+            try {
+                queryMediaItemsPage(context, bucketId, anchorDateTaken, anchorId, pageSize, request);
+            } catch (OperationCanceledException ignored) {
+                // 已被新的请求取代
+            } finally {
+                request.finished = true;
+            }
         });
     }
 
-    private void queryMediaItems(Context context, Uri uri, String[] projection,
-                                 String bucketId, List<MediaItemBean> resultList, boolean isVideo) {
-        Cursor cursor = null;
-        try {
-            String selection = MediaStore.MediaColumns.BUCKET_ID + "=?";
-            String[] selectionArgs = new String[]{bucketId};
+    private void queryMediaItemsPage(Context context, String bucketId, long anchorDateTaken, long anchorId,
+                                     int pageSize, LoadRequest request) {
+        String selection = buildPageSelection();
+        String[] selectionArgs = new String[]{
+                bucketId,
+                String.valueOf(anchorDateTaken),
+                String.valueOf(anchorDateTaken),
+                String.valueOf(anchorId)
+        };
 
-            cursor = context.getContentResolver().query(
-                    uri,
-                    projection,
-                    selection,
-                    selectionArgs,
-                    MediaStore.MediaColumns.DATE_TAKEN + " DESC" // 按拍摄时间倒序
-            );
+        // 多取一条，用于判断是否还有下一页
+        List<MediaItemBean> pageItems = new ArrayList<>(pageSize + 1);
+        queryMediaItems(context, selection, selectionArgs, pageSize + 1, request.cancellationSignal, pageItems, null);
+        boolean hasMore = pageItems.size() > pageSize;
+        if (hasMore) {
+            pageItems.remove(pageSize);
+        }
 
-            if (cursor != null) {
-                int idIndex = cursor.getColumnIndexOrThrow(projection[0]);
-                int bucketIdIndex = cursor.getColumnIndexOrThrow(projection[1]);
-                int bucketNameIndex = cursor.getColumnIndexOrThrow(projection[2]);
-                int mimeTypeIndex = cursor.getColumnIndexOrThrow(projection[3]);
-                int dateTakenIndex = cursor.getColumnIndexOrThrow(projection[4]);
-                int dateModifiedIndex = cursor.getColumnIndexOrThrow(projection[5]);
-                int sizeIndex = cursor.getColumnIndexOrThrow(projection[6]);
-                int widthIndex = cursor.getColumnIndexOrThrow(projection[7]);
-                int heightIndex = cursor.getColumnIndexOrThrow(projection[8]);
-                int columnDataIndex = cursor.getColumnIndexOrThrow(projection[9]);
-
-                int isFavoriteIndex = cursor.getColumnIndexOrThrow(projection[10]);
-                int genreIndex = cursor.getColumnIndexOrThrow(projection[11]);
-                int orientationIndex = cursor.getColumnIndexOrThrow(projection[12]);
-
-                // 视频时长 index ，图片默认-1
-                int durationIndex = -1;
-                if (isVideo && projection.length > 13) {
-                    durationIndex = cursor.getColumnIndexOrThrow(projection[13]);
-                }
-                while (cursor.moveToNext()) {
-                    long id = cursor.getLong(idIndex);
-                    String bId = cursor.getString(bucketIdIndex);
-                    String bName = cursor.getString(bucketNameIndex);
-                    String mimeType = cursor.getString(mimeTypeIndex);
-                    long dateTaken = cursor.getLong(dateTakenIndex);
-                    long dateModified = cursor.getLong(dateModifiedIndex);
-                    long size = cursor.getLong(sizeIndex);
-                    int width = cursor.getInt(widthIndex);
-                    int height = cursor.getInt(heightIndex);
-                    String filePath = cursor.getString(columnDataIndex);
-
-
-                    // 视频时长，图片默认0
-                    int duration = 0;
-                    if (durationIndex != -1) {
-                        duration = cursor.getInt(durationIndex);
-                    }
-//                    if (isVideo) {
-//                        String duration = AppUtilManager.getProperTime(cursor.getLong(columnDurationIndex) / ONE_THOUSAND_MILLISECONDS);
-//                        galleryInfoEntity.setFileTime(TextUtils.isEmpty(duration) ? "0:00" : duration);
-//                    } else {
-//                        galleryInfoEntity.setFileTime("0:00");
-//                    }
-
-                    Uri contentUri = ContentUris.withAppendedId(uri, id);
-                    MediaItemBean item = new MediaItemBean(id, bId, bName, contentUri, mimeType,
-                            dateTaken, dateModified, size, width, height, duration);
-                    item.filePath = filePath;
-
-                    // EXIF
-                    /*
-                    // fileType
-//                    String mimeType = context.getContentResolver().getType(uri);
-                    int fileMimeTypeIndex = AppUtilManager.getFileTypeIndex(mimeType);
-                    item.fileType = fileMimeTypeIndex ;
-                    // rating
-                    int rating = FileUtilManager.getInstance().getRating(item.fileType, item.filePath);
-                    item.fileRating = rating;
-                    // exif photoStyle
-                    if (AppUtilManager.isExistExifInfo( item.filePath, item.fileType)) {
-//                        galleryInfoEntity.setPhotoStyle(AppUtilManager.getPhotoStyleKey(LlcApplication.getContext().photoStyle, LlcApplication.getContext().modelOriginal));
-                        item.photoStyle = AppUtilManager.getPhotoStyleKey(LlcApplication.getContext().photoStyle, LlcApplication.getContext().modelOriginal);
-                    }
+        long nextAnchorDateTaken = anchorDateTaken;
+        long nextAnchorId = anchorId;
+        if (!pageItems.isEmpty()) {
+            MediaItemBean last = pageItems.get(pageItems.size() - 1);
+            nextAnchorDateTaken = last.dateTaken;
+            nextAnchorId = last.id;
+        }
+        if (mediaItemsPageRequest.get() == request) {
+            mediaItemsPageLiveData.postValue(new MediaItemPage(bucketId, pageItems,
+                    nextAnchorDateTaken, nextAnchorId, hasMore, anchorDateTaken == Long.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Windowed source of a bucket for {@link PagedCommonAdapter}: images and videos in {@link #MEDIA_ITEM_SORT_ORDER},
+     * only the pages around the visible window are queried and kept, whatever the size of the bucket.
+     * Call {@link WindowedDataSource#invalidate()} again to reload after a MediaStore change.
+     *
+     * @param pageSize items per page, eg: a few screens of the grid
+     */
+    public WindowedDataSource<MediaItemBean> createMediaItemsDataSource(Context context, String bucketId, int pageSize) {
+        Context appContext = context.getApplicationContext();
+        WindowedDataSource.PageLoader<MediaItemBean> loader = new WindowedDataSource.PageLoader<MediaItemBean>() {
+            @Override
+            public int loadCount() {
+                return countMediaItems(appContext, bucketId);
+            }
+
+            @NonNull
+            @Override
+            public List<MediaItemBean> loadPage(int offset, int limit) {
+                return queryMediaItemsRange(appContext, bucketId, offset, limit);
+            }
+        };
+        return new WindowedDataSource.Builder<>(loader, executors.itemExecutor)
+                .pageSize(pageSize)
+                .build();
+    }
+
+    private int countMediaItems(Context context, String bucketId) {
+        try (Cursor cursor = context.getContentResolver().query(MediaStore.Files.getContentUri("external"),
+                new String[]{MediaStore.Files.FileColumns._ID}, FILE_ITEM_SELECTION, new String[]{bucketId}, null)) {
+            return cursor == null ? 0 : cursor.getCount();
+        } catch (SecurityException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
 
-                    */
+    /**
+     * Items [offset, offset + limit) of the bucket, one sorted Files query (images and videos share the offset)
+     */
+    private List<MediaItemBean> queryMediaItemsRange(Context context, String bucketId, int offset, int limit) {
+        List<MediaItemBean> items = new ArrayList<>(limit);
+        try (Cursor cursor = queryMediaCursor(context, MediaStore.Files.getContentUri("external"),
+                FILE_ITEM_PROJECTION, FILE_ITEM_SELECTION, new String[]{bucketId}, offset, limit, null)) {
+            if (cursor == null) return items;
+
+            MediaItemCursor source = new MediaItemCursor(cursor, null, FILE_ITEM_PROJECTION, true);
+            while (cursor.moveToNext()) {
+                items.add(source.read());
+            }
+        } catch (SecurityException e) {
+            e.printStackTrace();
+        }
+        return items;
+    }
 
-                    resultList.add(item);
+    /**
+     * Rows after the anchor in {@link #MEDIA_ITEM_SORT_ORDER}, args: bucketId, dateTaken, dateTaken, id
+     * <p>
+     * Same {@link #MEDIA_ITEM_DATE_TAKEN} expression as the sort order: a NULL row and a row taken at 0 are
+     * ordered by id only, so an anchor read as 0 skips none of them.
+     */
+    private static String buildPageSelection() {
+        String dateTaken = MEDIA_ITEM_DATE_TAKEN;
+        String id = MediaStore.MediaColumns._ID;
+        return MediaStore.MediaColumns.BUCKET_ID + "=?1 AND ("
+                + dateTaken + "<?2 OR (" + dateTaken + "=?3 AND " + id + "<?4))";
+    }
+
+    /**
+     * Query with {@link #MEDIA_ITEM_SORT_ORDER}
+     *
+     * @param limit max row count, &lt;= 0 for no limit
+     */
+    private Cursor queryMediaCursor(Context context, Uri uri, String[] projection,
+                                    String selection, String[] selectionArgs, int limit,
+                                    CancellationSignal cancellationSignal) {
+        return queryMediaCursor(context, uri, projection, selection, selectionArgs, 0, limit, cancellationSignal);
+    }
+
+    /**
+     * Query with {@link #MEDIA_ITEM_SORT_ORDER}, skipping the first offset rows
+     *
+     * @param limit max row count, &lt;= 0 for no limit (offset is then ignored)
+     */
+    private Cursor queryMediaCursor(Context context, Uri uri, String[] projection,
+                                    String selection, String[] selectionArgs, int offset, int limit,
+                                    CancellationSignal cancellationSignal) {
+        if (limit <= 0) {
+            return context.getContentResolver().query(uri, projection, selection, selectionArgs,
+                    MEDIA_ITEM_SORT_ORDER, cancellationSignal);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, MEDIA_ITEM_SORT_ORDER);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+            if (offset > 0) {
+                queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+            }
+            return context.getContentResolver().query(uri, projection, queryArgs, cancellationSignal);
+        }
+        // api 29 还支持在 sortOrder 后拼接 LIMIT
+        String limitClause = offset > 0 ? " LIMIT " + limit + " OFFSET " + offset : " LIMIT " + limit;
+        return context.getContentResolver().query(uri, projection, selection, selectionArgs,
+                MEDIA_ITEM_SORT_ORDER + limitClause, cancellationSignal);
+    }
+
+    /**
+     * Replace the latest request of a LiveData
+     *
+     * @return the new request, null if the latest request has the same key and is still running (merged)
+     */
+    private LoadRequest startRequest(AtomicReference<LoadRequest> latest, String key) {
+        LoadRequest current = latest.get();
+        if (current != null && !current.finished && !current.cancellationSignal.isCanceled()
+                && current.key.equals(key)) {
+            return null;
+        }
+        LoadRequest request = new LoadRequest(key);
+        LoadRequest previous = latest.getAndSet(request);
+        if (previous != null) {
+            previous.cancellationSignal.cancel();
+        }
+        return request;
+    }
+
+    private void cancelRequest(AtomicReference<LoadRequest> latest) {
+        LoadRequest previous = latest.getAndSet(null);
+        if (previous != null) {
+            previous.cancellationSignal.cancel();
+        }
+    }
+
+    /**
+     * One in-flight media item load, its signal cancels the ContentResolver queries
+     */
+    private static class LoadRequest {
+        final String key;
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        volatile boolean finished;
+
+        LoadRequest(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * One page of {@link #loadMediaItemsPage}
+     */
+    public static class MediaItemPage {
+        public final String bucketId;
+        /**
+         * DATE_TAKEN DESC, _ID DESC, images and videos merged
+         */
+        public final List<MediaItemBean> items;
+        /**
+         * pass to the next {@link #loadMediaItemsPage} call
+         */
+        public final long anchorDateTaken;
+        public final long anchorId;
+        public final boolean hasMore;
+        /**
+         * true: replace the current list, false: append to it
+         */
+        public final boolean isFirstPage;
+
+        public MediaItemPage(String bucketId, List<MediaItemBean> items, long anchorDateTaken,
+                             long anchorId, boolean hasMore, boolean isFirstPage) {
+            this.bucketId = bucketId;
+            this.items = items;
+            this.anchorDateTaken = anchorDateTaken;
+            this.anchorId = anchorId;
+            this.hasMore = hasMore;
+            this.isFirstPage = isFirstPage;
+        }
+    }
+
+    /**
+     * 查询图片和视频，并按 {@link #MEDIA_ITEM_SORT_ORDER} 归并为一个有序列表
+     * <p>
+     * Every table is already sorted by the provider, so this is a k-way merge over the open cursors:
+     * rows are read one at a time and only the merged result is materialized.
+     *
+     * @param limit              max item count, &lt;= 0 for no limit
+     * @param cancellationSignal cancels the queries and the merge, throws {@link OperationCanceledException}
+     * @param timeline           nullable, gets every merged item in order
+     */
+    private void queryMediaItems(Context context, String selection, String[] selectionArgs, int limit,
+                                 CancellationSignal cancellationSignal, List<MediaItemBean> resultList,
+                                 @Nullable MediaTimelineIndex timeline) {
+        // 图片、视频的查询并发执行（查询耗时主要在 query() 内）
+        List<Callable<MediaItemCursor>> scans = new ArrayList<>();
+        // 查询图片
+        scans.add(() -> openMediaItemCursor(context, MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                IMAGE_ITEM_PROJECTION, selection, selectionArgs, limit, cancellationSignal, false));
+        // 查询视频
+        scans.add(() -> openMediaItemCursor(context, MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
+                VIDEO_ITEM_PROJECTION, selection, selectionArgs, limit, cancellationSignal, true));
+
+        List<MediaItemCursor> sources = new ArrayList<>();
+        // 未交回的 cursor（线程池已关闭、lane 被中断）由 invokeScans 关闭
+        for (MediaItemCursor source : executors.invokeScans(scans, source -> source.cursor.close())) {
+            if (source != null) {
+                sources.add(source);
+            }
+        }
+        try {
+            cancellationSignal.throwIfCanceled();
+
+            PriorityQueue<MediaItemCursor> queue = new PriorityQueue<>(Math.max(1, sources.size()),
+                    MediaItemCursor::compareTo);
+            for (MediaItemCursor source : sources) {
+                if (source.cursor.moveToFirst()) {
+                    queue.add(source);
+                }
+            }
+            while (!queue.isEmpty() && (limit <= 0 || resultList.size() < limit)) {
+                cancellationSignal.throwIfCanceled();
+                MediaItemCursor source = queue.poll();
+                MediaItemBean item = source.read();
+                resultList.add(item);
+                if (timeline != null) {
+                    timeline.append(item.dateTaken);
+                }
+                if (source.cursor.moveToNext()) {
+                    queue.add(source);
                 }
             }
         } catch (SecurityException e) {
             e.printStackTrace();
         } finally {
-            if (cursor != null) {
-                cursor.close();
+            for (MediaItemCursor source : sources) {
+                source.cursor.close();
             }
         }
     }
+
+    /**
+     * @return null if the provider returned no cursor, the query was denied or cancelled
+     */
+    private MediaItemCursor openMediaItemCursor(Context context, Uri uri, String[] projection,
+                                                String selection, String[] selectionArgs, int limit,
+                                                CancellationSignal cancellationSignal, boolean isVideo) {
+        Cursor cursor;
+        try {
+            cursor = queryMediaCursor(context, uri, projection, selection, selectionArgs, limit, cancellationSignal);
+        } catch (SecurityException e) {
+            e.printStackTrace();
+            return null;
+        } catch (OperationCanceledException e) {
+            // queryMediaItems 检查 cancellationSignal 后抛出
+            return null;
+        }
+        if (cursor == null) return null;
+        try {
+            return new MediaItemCursor(cursor, uri, projection, isVideo);
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    /**
+     * One sorted image / video cursor of {@link #queryMediaItems}, column indices are resolved once
+     * <p>
+     * uri null: a Files cursor with {@link #FILE_ITEM_PROJECTION}, the item uri follows the media_type of the row
+     */
+    private static class MediaItemCursor {
+        final Cursor cursor;
+        final Uri uri;
+        final int idIndex;
+        final int bucketIdIndex;
+        final int bucketNameIndex;
+        final int mimeTypeIndex;
+        final int dateTakenIndex;
+        final int dateModifiedIndex;
+        final int sizeIndex;
+        final int widthIndex;
+        final int heightIndex;
+        final int columnDataIndex;
+
+        final int isFavoriteIndex;
+        final int genreIndex;
+        final int orientationIndex;
+
+        // 视频时长 index ，图片默认-1
+        final int durationIndex;
+        // Files 表的 media_type index，其他为 -1
+        final int mediaTypeIndex;
+
+        MediaItemCursor(Cursor cursor, Uri uri, String[] projection, boolean isVideo) {
+            this.cursor = cursor;
+            this.uri = uri;
+            idIndex = cursor.getColumnIndexOrThrow(projection[0]);
+            bucketIdIndex = cursor.getColumnIndexOrThrow(projection[1]);
+            bucketNameIndex = cursor.getColumnIndexOrThrow(projection[2]);
+            mimeTypeIndex = cursor.getColumnIndexOrThrow(projection[3]);
+            dateTakenIndex = cursor.getColumnIndexOrThrow(projection[4]);
+            dateModifiedIndex = cursor.getColumnIndexOrThrow(projection[5]);
+            sizeIndex = cursor.getColumnIndexOrThrow(projection[6]);
+            widthIndex = cursor.getColumnIndexOrThrow(projection[7]);
+            heightIndex = cursor.getColumnIndexOrThrow(projection[8]);
+            columnDataIndex = cursor.getColumnIndexOrThrow(projection[9]);
+
+            isFavoriteIndex = cursor.getColumnIndexOrThrow(projection[10]);
+            genreIndex = cursor.getColumnIndexOrThrow(projection[11]);
+            orientationIndex = cursor.getColumnIndexOrThrow(projection[12]);
+
+            durationIndex = isVideo && projection.length > 13 ? cursor.getColumnIndexOrThrow(projection[13]) : -1;
+            mediaTypeIndex = projection.length > 14 ? cursor.getColumnIndexOrThrow(projection[14]) : -1;
+        }
+
+        /**
+         * Order of the current rows in {@link #MEDIA_ITEM_SORT_ORDER}, compared without creating the beans
+         */
+        int compareTo(MediaItemCursor other) {
+            int result = Long.compare(other.cursor.getLong(other.dateTakenIndex), cursor.getLong(dateTakenIndex));
+            return result != 0 ? result : Long.compare(other.cursor.getLong(other.idIndex), cursor.getLong(idIndex));
+        }
+
+        /**
+         * Read the current row
+         */
+        MediaItemBean read() {
+            long id = cursor.getLong(idIndex);
+            String bId = cursor.getString(bucketIdIndex);
+            String bName = cursor.getString(bucketNameIndex);
+            String mimeType = cursor.getString(mimeTypeIndex);
+            long dateTaken = cursor.getLong(dateTakenIndex);
+            long dateModified = cursor.getLong(dateModifiedIndex);
+            long size = cursor.getLong(sizeIndex);
+            int width = cursor.getInt(widthIndex);
+            int height = cursor.getInt(heightIndex);
+            String filePath = cursor.getString(columnDataIndex);
+
+
+            // 视频时长，图片默认0
+            int duration = 0;
+            if (durationIndex != -1) {
+                duration = cursor.getInt(durationIndex);
+            }
+//            if (isVideo) {
+//                String duration = AppUtilManager.getProperTime(cursor.getLong(columnDurationIndex) / ONE_THOUSAND_MILLISECONDS);
+//                galleryInfoEntity.setFileTime(TextUtils.isEmpty(duration) ? "0:00" : duration);
+//            } else {
+//                galleryInfoEntity.setFileTime("0:00");
+//            }
+
+            Uri baseUri = uri;
+            if (mediaTypeIndex != -1) {
+                baseUri = cursor.getInt(mediaTypeIndex) == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO
+                        ? MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+                        : MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+            }
+            Uri contentUri = ContentUris.withAppendedId(baseUri, id);
+            MediaItemBean item = new MediaItemBean(id, bId, bName, contentUri, mimeType,
+                    dateTaken, dateModified, size, width, height, duration);
+            item.filePath = filePath;
+
+            // EXIF：不在 cursor 循环内读文件，由 MediaMetadataExtractor 对可见/筛选命中的 item 在后台提取
+            /*
+            // fileType
+//            String mimeType = context.getContentResolver().getType(uri);
+            int fileMimeTypeIndex = AppUtilManager.getFileTypeIndex(mimeType);
+            item.fileType = fileMimeTypeIndex ;
+            // rating
+            int rating = FileUtilManager.getInstance().getRating(item.fileType, item.filePath);
+            item.fileRating = rating;
+            // exif photoStyle
+            if (AppUtilManager.isExistExifInfo( item.filePath, item.fileType)) {
+//                galleryInfoEntity.setPhotoStyle(AppUtilManager.getPhotoStyleKey(LlcApplication.getContext().photoStyle, LlcApplication.getContext().modelOriginal));
+                item.photoStyle = AppUtilManager.getPhotoStyleKey(LlcApplication.getContext().photoStyle, LlcApplication.getContext().modelOriginal);
+            }
+
+            */
+
+            return item;
+        }
+    }
+    // endregion
+
+    // region [Album Filter] 多条件筛选，在本地媒体索引上查询
+    private final MutableLiveData<List<MediaItemBean>> filteredItemsLiveData = new MutableLiveData<>();
+    private final AtomicReference<LoadRequest> filteredItemsRequest = new AtomicReference<>();
+    private final AtomicBoolean mediaIndexSyncQueued = new AtomicBoolean();
+    /**
+     * filter of the last {@link #loadFilteredMediaItems}, re-run after each index sync
+     */
+    private volatile MediaFilter activeFilter;
+    private volatile Context filterContext;
+
+    /**
+     * EXIF candidates of a rating / photo style filter queued per run, the next ones after the refresh
+     */
+    private static final int FILTER_METADATA_BATCH_SIZE = 500;
+    /**
+     * Merge the EXIF results of a batch into one filter refresh
+     */
+    private static final long FILTER_REFRESH_DELAY_MS = 500;
+
+    private final Handler filterRefreshHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshFilterRunnable = this::refreshActiveFilter;
+    private MediaMetadataExtractor metadataExtractor;
+
+    /**
+     * Result of {@link #loadFilteredMediaItems}, DATE_TAKEN DESC, _ID DESC
+     */
+    public LiveData<List<MediaItemBean>> getFilteredItemsLiveData() {
+        return filteredItemsLiveData;
+    }
+
+    /**
+     * Sync {@link MediaIndexDatabase} with MediaStore on the folder lane, then refresh the active filter.
+     * Called by {@link #startObservingMediaStore} and for every MediaStore change batch, queued calls are merged.
+     */
+    public void syncMediaIndex(Context context) {
+        if (context == null) {
+            return;
+        }
+        if (!mediaIndexSyncQueued.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        executors.folderExecutor.execute(() -> {
+            mediaIndexSyncQueued.set(false);
+            MediaIndexDatabase mediaIndex = MediaIndexDatabase.getInstance(appContext);
+            mediaIndex.sync(appContext);
+
+            // 索引已变化，重新执行当前筛选（正在执行的旧查询作废）；同步失败时不重试，等下一次变更
+            MediaFilter filter = activeFilter;
+            if (filter != null && mediaIndex.isSynced()) {
+                refreshActiveFilter();
+            }
+        });
+    }
+
+    /**
+     * 筛选媒体（eg: favorite 4K videos over 1 min in DCIM）
+     * <p>
+     * Answered from the indexes of {@link MediaIndexDatabase} only, no MediaStore query. The index is kept
+     * in sync by {@link #syncMediaIndex}; before its first sync the result is posted once the sync is done.
+     */
+    public void loadFilteredMediaItems(Context context, MediaFilter filter) {
+        activeFilter = filter;
+        if (context == null || filter == null) {
+            filterRefreshHandler.removeCallbacks(refreshFilterRunnable);
+            cancelRequest(filteredItemsRequest);
+            filteredItemsLiveData.postValue(new ArrayList<>());
+            return;
+        }
+
+        filterContext = context.getApplicationContext();
+        LoadRequest request = startRequest(filteredItemsRequest, filter.key());
+        if (request == null) {
+            // 相同条件的筛选仍在进行，合并
+            return;
+        }
+
+        executors.itemExecutor.execute(() -> {
+            try {
+                if (request.cancellationSignal.isCanceled()) return;
+                MediaIndexDatabase mediaIndex = MediaIndexDatabase.getInstance(context);
+                if (!mediaIndex.isSynced()) {
+                    // 首次使用：同步完成后 syncMediaIndex 会重新执行当前筛选
+                    syncMediaIndex(context);
+                    return;
+                }
+
+                List<MediaItemBean> items = mediaIndex.query(filter);
+                if (filteredItemsRequest.get() != request) return;
+                filteredItemsLiveData.postValue(items);
+
+                if (filter.needsMetadata()) {
+                    requestFilterMetadata(context, mediaIndex, filter);
+                }
+            } finally {
+                request.finished = true;
+            }
+        });
+    }
+
+    /**
+     * Shared EXIF extractor of the gallery (eg: the grid calls requestVisible on it), shut down in onCleared
+     */
+    public synchronized MediaMetadataExtractor getMetadataExtractor(Context context) {
+        if (metadataExtractor == null) {
+            metadataExtractor = new MediaMetadataExtractor(context.getApplicationContext());
+        }
+        return metadataExtractor;
+    }
+
+    /**
+     * 筛选条件含 EXIF（rating / photo style）：未提取过的候选项交给 MediaMetadataExtractor（排在可见项之后），
+     * 提取结果写入索引后重新筛选，新命中的项随之出现
+     */
+    private void requestFilterMetadata(Context context, MediaIndexDatabase mediaIndex, MediaFilter filter) {
+        List<MediaItemBean> candidates = mediaIndex.queryMissingMetadata(filter, FILTER_METADATA_BATCH_SIZE);
+        if (candidates.isEmpty()) {
+            return;
+        }
+        getMetadataExtractor(context).requestForFilter(candidates, item -> {
+            // 主线程回调，同一批的结果合并为一次刷新
+            filterRefreshHandler.removeCallbacks(refreshFilterRunnable);
+            filterRefreshHandler.postDelayed(refreshFilterRunnable, FILTER_REFRESH_DELAY_MS);
+        });
+    }
+
+    private void refreshActiveFilter() {
+        MediaFilter filter = activeFilter;
+        Context context = filterContext;
+        if (filter != null && context != null) {
+            cancelRequest(filteredItemsRequest);
+            loadFilteredMediaItems(context, filter);
+        }
+    }
+    // endregion
+
+    // region [Media Observer] 监听 MediaStore 变更，增量刷新文件夹树与媒体列表
+
+    /**
+     * Wait this long after the last change notification before applying (eg: burst shooting)
+     */
+    private static final long MEDIA_CHANGE_DEBOUNCE_MS = 500;
+    /**
+     * Apply at the latest this long after the first pending notification, a long burst must not starve the UI
+     */
+    private static final long MEDIA_CHANGE_MAX_DELAY_MS = 2000;
+    /**
+     * SQLite host parameter limit is 999 on older releases
+     */
+    private static final int MEDIA_CHANGE_BATCH_SIZE = 500;
+
+    private final Handler mediaChangeHandler = new Handler(Looper.getMainLooper());
+    private final Runnable dispatchMediaChangesRunnable = this::dispatchMediaChanges;
+    private ContentObserver mediaObserver;
+    private Context observerContext;
+
+    // 以下仅在主线程访问
+    private final Set<Long> pendingChangedIds = new HashSet<>();
+    /**
+     * true: a notification without item id (eg: the whole collection), the media list is reloaded
+     */
+    private boolean pendingReloadItems;
+    private long firstPendingChangeTime;
+
+    /**
+     * Register a {@link ContentObserver} on the Images and Video collections until {@link #stopObservingMediaStore()}
+     * or {@link #onCleared()}. Bursts of notifications are debounced, then
+     * <ul>
+     *     <li>the album folders are re-synced ({@link #loadAlbumFolders(Context)} only applies the changed rows)</li>
+     *     <li>the changed ids of the loaded {@link #loadMediaItems} list are re-queried and patched into it</li>
+     * </ul>
+     * Must be called on the main thread.
+     */
+    public void startObservingMediaStore(Context context) {
+        if (context == null || mediaObserver != null) {
+            return;
+        }
+        observerContext = context.getApplicationContext();
+        mediaObserver = new ContentObserver(mediaChangeHandler) {
+            @Override
+            public void onChange(boolean selfChange, @Nullable Uri uri) {
+                // api 30+ 的批量通知 onChange(boolean, Collection<Uri>, int) 默认逐个回调到这里
+                onMediaChanged(uri);
+            }
+        };
+        ContentResolver resolver = observerContext.getContentResolver();
+        resolver.registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, mediaObserver);
+        resolver.registerContentObserver(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, true, mediaObserver);
+        // 启动时同步一次，之后只在变更时同步
+        syncMediaIndex(observerContext);
+    }
+
+    public void stopObservingMediaStore() {
+        if (mediaObserver == null) {
+            return;
+        }
+        observerContext.getContentResolver().unregisterContentObserver(mediaObserver);
+        mediaObserver = null;
+        mediaChangeHandler.removeCallbacks(dispatchMediaChangesRunnable);
+        pendingChangedIds.clear();
+        pendingReloadItems = false;
+        firstPendingChangeTime = 0;
+    }
+
+    private void onMediaChanged(@Nullable Uri uri) {
+        long id = parseMediaId(uri);
+        if (id >= 0) {
+            pendingChangedIds.add(id);
+        } else {
+            pendingReloadItems = true;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (firstPendingChangeTime == 0) {
+            firstPendingChangeTime = now;
+        }
+        // 连续通知时推迟执行，但不超过 MEDIA_CHANGE_MAX_DELAY_MS
+        long delay = Math.min(MEDIA_CHANGE_DEBOUNCE_MS, firstPendingChangeTime + MEDIA_CHANGE_MAX_DELAY_MS - now);
+        mediaChangeHandler.removeCallbacks(dispatchMediaChangesRunnable);
+        mediaChangeHandler.postDelayed(dispatchMediaChangesRunnable, Math.max(0, delay));
+    }
+
+    private void dispatchMediaChanges() {
+        Context context = observerContext;
+        if (context == null || mediaObserver == null) {
+            return;
+        }
+        Set<Long> changedIds = new HashSet<>(pendingChangedIds);
+        boolean reloadItems = pendingReloadItems;
+        pendingChangedIds.clear();
+        pendingReloadItems = false;
+        firstPendingChangeTime = 0;
+
+        // 筛选用的媒体索引；先于文件夹加载排入 folder lane，文件夹按同步后的索引聚合
+        syncMediaIndex(context);
+        // 文件夹：api 30+ 按目录重新聚合，否则按 generation 增量同步（api < 30 无 generation，退化为全量扫描）
+        loadAlbumFolders(context);
+
+        executors.itemExecutor.execute(() -> applyMediaItemChanges(context, changedIds, reloadItems));
+    }
+
+    /**
+     * Patch the changed ids into the last loaded media list, runs on the item lane after the pending loads
+     */
+    private void applyMediaItemChanges(Context context, Set<Long> changedIds, boolean reloadItems) {
+        String bucketId = loadedItemsBucketId;
+        List<MediaItemBean> items = loadedItems;
+        if (bucketId == null || items == null || loadedTimeline == null) {
+            return;
+        }
+        // 另一个文件夹的加载已排队，或当前列表已被取消：新结果已包含变更
+        LoadRequest request = mediaItemsRequest.get();
+        if (request == null || !request.key.equals(bucketId)) {
+            return;
+        }
+        if (reloadItems) {
+            loadMediaItems(context, bucketId);
+            return;
+        }
+        if (changedIds.isEmpty()) {
+            return;
+        }
+
+        // 重新查询变更的 id：仍在该文件夹的替换/插入，查不到的（已删除或移出文件夹）移除
+        List<MediaItemBean> changedItems = new ArrayList<>();
+        List<Long> ids = new ArrayList<>(changedIds);
+        CancellationSignal cancellationSignal = request.cancellationSignal;
+        try {
+            for (int start = 0; start < ids.size(); start += MEDIA_CHANGE_BATCH_SIZE) {
+                List<Long> batch = ids.subList(start, Math.min(ids.size(), start + MEDIA_CHANGE_BATCH_SIZE));
+                StringBuilder selection = new StringBuilder(MediaStore.MediaColumns.BUCKET_ID + "=? AND "
+                        + MediaStore.MediaColumns._ID + " IN (");
+                String[] selectionArgs = new String[batch.size() + 1];
+                selectionArgs[0] = bucketId;
+                for (int i = 0; i < batch.size(); i++) {
+                    selection.append(i == 0 ? "?" : ",?");
+                    selectionArgs[i + 1] = String.valueOf(batch.get(i));
+                }
+                selection.append(')');
+                queryMediaItems(context, selection.toString(), selectionArgs, 0, cancellationSignal, changedItems, null);
+            }
+        } catch (OperationCanceledException ignored) {
+            // 已被新的请求取代
+            return;
+        }
+
+        boolean removed = false;
+        List<MediaItemBean> updated = new ArrayList<>(items.size() + changedItems.size());
+        MediaTimelineIndex timeline = loadedTimeline.copy();
+        for (MediaItemBean item : items) {
+            if (changedIds.contains(item.id)) {
+                removed = true;
+                timeline.remove(item.dateTaken);
+            } else {
+                updated.add(item);
+            }
+        }
+        if (!removed && changedItems.isEmpty()) {
+            // 变更不在该文件夹
+            return;
+        }
+        updated.addAll(changedItems);
+        for (MediaItemBean item : changedItems) {
+            timeline.insert(item.dateTaken);
+        }
+        // 原列表已有序，TimSort 对近似有序的列表接近 O(n)
+        updated.sort(MEDIA_ITEM_ORDER);
+
+        if (mediaItemsRequest.get() == request) {
+            loadedItems = updated;
+            loadedTimeline = timeline;
+            mediaTimelineLiveData.postValue(timeline.copy());
+            mediaItemsLiveData.postValue(updated);
+        }
+    }
+
+    /**
+     * @return id of an item uri (eg: content://media/external/images/media/12), -1 for a collection uri
+     */
+    private static long parseMediaId(@Nullable Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
     // endregion
 
     // region [Album Zoom] 处理系统相册文件夹列表缩放
@@ -632,6 +1910,15 @@ public class GalleryViewModel extends ViewModel {
     public LiveData<ZoomAction> getZoomActionLiveData() {
         return zoomActionLiveData;
     }
+
+    /**
+     * Thumbnail decode tier of the grid after a zoom step, see {@link GalleryThumbnailLoader#loadTiered}
+     *
+     * @param gridWidthPx grid width without padding
+     */
+    public static ThumbnailTier getThumbnailTier(int columnCount, int gridWidthPx) {
+        return ThumbnailTier.forColumnCount(columnCount, gridWidthPx);
+    }
     // endregion
 
     // region [EventFromParentEnum] 外部  → 内部子Fragment 传递的点击事件
@@ -786,7 +2073,7 @@ public class GalleryViewModel extends ViewModel {
             albumFoldersLiveData.postValue(new ArrayList<>());
             return;
         }
-        executorService.execute(() -> {
+        executors.folderExecutor.execute(() -> {
             Map<String, MediaFolderBean> albumMap = new HashMap<>();
 
             // 图片
@@ -796,7 +2083,8 @@ public class GalleryViewModel extends ViewModel {
                     MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
                     MediaStore.Images.Media.DATE_TAKEN,
                     MediaStore.Images.Media.MIME_TYPE,
-                    MediaStore.Images.Media.RELATIVE_PATH
+                    MediaStore.Images.Media.RELATIVE_PATH,
+                    MediaStore.Images.Media.DATE_MODIFIED
             };
             // 图片数据源
             Uri imageUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
@@ -807,7 +2095,8 @@ public class GalleryViewModel extends ViewModel {
                     MediaStore.Video.Media.BUCKET_DISPLAY_NAME,
                     MediaStore.Images.Media.DATE_TAKEN,
                     MediaStore.Images.Media.MIME_TYPE,
-                    MediaStore.Images.Media.RELATIVE_PATH
+                    MediaStore.Images.Media.RELATIVE_PATH,
+                    MediaStore.Images.Media.DATE_MODIFIED
             };
             // 视频数据源
             Uri videoUri = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
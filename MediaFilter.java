@@ -0,0 +1,179 @@
+
+/**
+ * 相册筛选条件，由 {@link MediaIndexDatabase#query(MediaFilter)} 在本地索引上执行
+ * <p>
+ * eg: favorite 4K videos over 1 min in DCIM
+ * <pre>
+ * new MediaFilter.Builder()
+ *         .favorite(true)
+ *         .videosOnly()
+ *         .minLongSide(3840)
+ *         .minDurationMs(60_000)
+ *         .relativePathPrefix("DCIM/")
+ *         .build();
+ * </pre>
+ */
+public final class MediaFilter {
+
+    private final String selection;
+    private final String[] selectionArgs;
+    /**
+     * conditions on MediaStore columns only, without rating / photo style
+     */
+    private final String baseSelection;
+    private final String[] baseSelectionArgs;
+    private final boolean needsMetadata;
+    final int offset;
+    final int limit;
+
+    private MediaFilter(Builder builder) {
+        this.selection = join(builder.clauses);
+        this.selectionArgs = builder.args.isEmpty() ? null : builder.args.toArray(new String[0]);
+        this.baseSelection = join(builder.baseClauses);
+        this.baseSelectionArgs = builder.baseArgs.isEmpty() ? null : builder.baseArgs.toArray(new String[0]);
+        this.needsMetadata = builder.clauses.size() != builder.baseClauses.size();
+        this.offset = builder.offset;
+        this.limit = builder.limit;
+    }
+
+    private static String join(List<String> clauses) {
+        return clauses.isEmpty() ? null : TextUtils.join(" AND ", clauses);
+    }
+
+    /**
+     * @return true if a condition reads EXIF (rating / photo style): items not extracted yet can not match
+     * until {@link MediaMetadataExtractor} reads them
+     */
+    public boolean needsMetadata() {
+        return needsMetadata;
+    }
+
+    @Nullable
+    String selection() {
+        return selection;
+    }
+
+    @Nullable
+    String[] selectionArgs() {
+        return selectionArgs;
+    }
+
+    @Nullable
+    String selectionWithoutMetadata() {
+        return baseSelection;
+    }
+
+    @Nullable
+    String[] selectionArgsWithoutMetadata() {
+        return baseSelectionArgs;
+    }
+
+    /**
+     * Equal for filters with the same conditions and page, merges duplicate loads
+     */
+    String key() {
+        return selection + "|" + Arrays.toString(selectionArgs) + "|" + offset + "," + limit;
+    }
+
+    public static class Builder {
+        private final List<String> clauses = new ArrayList<>();
+        private final List<String> args = new ArrayList<>();
+        private final List<String> baseClauses = new ArrayList<>();
+        private final List<String> baseArgs = new ArrayList<>();
+        private int offset;
+        private int limit;
+
+        private Builder where(String clause, Object... values) {
+            baseClauses.add(clause);
+            for (Object value : values) {
+                baseArgs.add(String.valueOf(value));
+            }
+            return whereMetadata(clause, values);
+        }
+
+        /**
+         * Condition on an EXIF column filled by {@link MediaMetadataExtractor}
+         */
+        private Builder whereMetadata(String clause, Object... values) {
+            clauses.add(clause);
+            for (Object value : values) {
+                args.add(String.valueOf(value));
+            }
+            return this;
+        }
+
+        public Builder bucketId(@NonNull String bucketId) {
+            return where("bucket_id=?", bucketId);
+        }
+
+        /**
+         * Folder and its sub folders, eg: "DCIM/"
+         */
+        public Builder relativePathPrefix(@NonNull String relativePath) {
+            // 用范围代替 LIKE，可走 relative_path 索引
+            return where("relative_path>=? AND relative_path<?", relativePath, relativePath + Character.MAX_VALUE);
+        }
+
+        public Builder imagesOnly() {
+            return where("media_type=?", MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE);
+        }
+
+        public Builder videosOnly() {
+            return where("media_type=?", MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO);
+        }
+
+        public Builder favorite(boolean favorite) {
+            return where("is_favorite=?", favorite ? 1 : 0);
+        }
+
+        public Builder genre(@NonNull String genre) {
+            return where("genre=?", genre);
+        }
+
+        /**
+         * @param orientation 0 / 90 / 180 / 270
+         */
+        public Builder orientation(int orientation) {
+            return where("orientation=?", orientation);
+        }
+
+        public Builder sizeBetween(long minBytes, long maxBytes) {
+            return where("size>=? AND size<=?", minBytes, maxBytes);
+        }
+
+        /**
+         * eg: 3840 for 4K, either orientation
+         */
+        public Builder minLongSide(int px) {
+            return where("(width>=? OR height>=?)", px, px);
+        }
+
+        public Builder minDurationMs(long durationMs) {
+            return where("duration>=?", durationMs);
+        }
+
+        /**
+         * Items whose EXIF was not extracted yet do not match
+         */
+        public Builder minRating(int rating) {
+            return whereMetadata("rating>=?", rating);
+        }
+
+        public Builder photoStyle(@NonNull String photoStyle) {
+            return whereMetadata("photo_style=?", photoStyle);
+        }
+
+        /**
+         * @param limit &lt;= 0: no limit
+         */
+        public Builder page(int offset, int limit) {
+            this.offset = Math.max(0, offset);
+            this.limit = limit;
+            return this;
+        }
+
+        public MediaFilter build() {
+            return new MediaFilter(this);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+
+/**
+ * 相册文件夹树（按路径分段的字典树），{@link GalleryViewModel} 的全量构建与增量同步共用
+ * <p>
+ * Every node knows its parent and finds a child by segment. Adding or removing one media item walks only
+ * the ancestors of its folder: O(depth) count / cover updates. A cover that pointed to a removed item is
+ * re-resolved from the direct latest item and the child covers of that node, O(children).
+ * <p>
+ * Counts and covers are primitive fields of the node (cover = media id + type + date modified), the {@link MediaFolderBean}s
+ * are only created in {@link #publish()}, so a cover {@link Uri} is created once per displayed folder
+ * instead of once per media row.
+ * <p>
+ * Not thread safe, used on the folder lane only. The trie keeps no reference to the beans it publishes,
+ * they can be posted to the UI and are never written again.
+ */
+public final class MediaFolderTrie {
+
+    /**
+     * Virtual root, its children are the top level folders (DCIM, Pictures ...)
+     */
+    private final Node root = new Node(null, "", "", null);
+
+    /**
+     * key = folder.path, attached nodes only
+     */
+    private final Map<String, Node> nodesByPath = new LinkedHashMap<>();
+
+    /**
+     * Interned leaves, key = relativePath as returned by MediaStore (eg: "DCIM/Camera/").
+     * A row in a known path costs this one lookup, no segment parsing.
+     */
+    private final Map<String, Node> leafByRelativePath = new HashMap<>();
+
+    private final Set<Node> dirtyCovers = new HashSet<>();
+    private final Set<Node> dirtyDirect = new HashSet<>();
+    private boolean hasDetachedNodes;
+
+    /**
+     * Add one row of the index, creates the missing folders of its relative path
+     */
+    public void add(@NonNull MediaPathIndex index, int row) {
+        String relativePath = index.getRelativePath(row);
+        if (relativePath == null) return;
+
+        long id = index.getId(row);
+        long dateTaken = index.getDateTaken(row);
+        long dateModified = index.getDateModified(row);
+        String mimeType = index.getMimeType(row);
+        byte mediaType = index.getMediaType(row);
+
+        Node leaf = leafFor(relativePath, index.getBucketId(row));
+        // 更新封面/计数（此计数含子目录的文件，会在每个祖先节点都累加）
+        for (Node node = leaf; node != root; node = node.parent) {
+            node.itemCount++;
+            if (dateTaken > node.coverDateTaken) {
+                node.setCover(id, dateTaken, dateModified, mimeType, mediaType);
+            }
+        }
+
+        // 统计“直接在该目录下”的文件（不包括子目录），及最新文件（用于虚拟文件夹封面）
+        leaf.directCount++;
+        if (leaf.directLatestId < 0 || dateTaken > leaf.directLatestDateTaken) {
+            leaf.setDirectLatest(id, dateTaken, dateModified, mimeType, mediaType);
+        }
+    }
+
+    /**
+     * Add a whole folder at once (count + newest item, eg: {@link MediaIndexDatabase#aggregateByRelativePath()}),
+     * same result as adding its rows one by one. A trie built this way has no rows to {@link #remove}.
+     */
+    public void addAggregate(@NonNull MediaIndexDatabase.FolderAggregate aggregate) {
+        if (aggregate.relativePath == null || aggregate.count <= 0) return;
+
+        Node leaf = leafFor(aggregate.relativePath, aggregate.bucketId);
+        for (Node node = leaf; node != root; node = node.parent) {
+            node.itemCount += aggregate.count;
+            if (aggregate.latestDateTaken > node.coverDateTaken) {
+                node.setCover(aggregate.latestId, aggregate.latestDateTaken, aggregate.latestDateModified,
+                        aggregate.latestMimeType, aggregate.latestMediaType);
+            }
+        }
+
+        leaf.directCount += aggregate.count;
+        if (leaf.directLatestId < 0 || aggregate.latestDateTaken > leaf.directLatestDateTaken) {
+            leaf.setDirectLatest(aggregate.latestId, aggregate.latestDateTaken, aggregate.latestDateModified,
+                    aggregate.latestMimeType, aggregate.latestMediaType);
+        }
+    }
+
+    /**
+     * Remove one row of the index (before it is removed from the index), folders left without media are detached.
+     * Call {@link #finishUpdate()} after a batch of removals to re-resolve the affected covers.
+     */
+    public void remove(@NonNull MediaPathIndex index, int row) {
+        String relativePath = index.getRelativePath(row);
+        if (relativePath == null) return;
+
+        Node leaf = leafByRelativePath.get(relativePath);
+        if (leaf == null || leaf.detached) return;
+
+        long id = index.getId(row);
+        for (Node node = leaf; node != root; node = node.parent) {
+            node.itemCount--;
+            if (node.coverId == id) {
+                dirtyCovers.add(node);
+            }
+        }
+
+        leaf.directCount--;
+        if (leaf.directLatestId == id) {
+            leaf.setDirectLatest(-1, 0, 0, null, (byte) 0);
+            dirtyDirect.add(leaf);
+        }
+
+        // 从叶子向上移除空文件夹（全量构建不会生成它们）
+        for (Node node = leaf; node != root && node.itemCount <= 0; node = node.parent) {
+            detach(node);
+        }
+    }
+
+    /**
+     * Folders whose direct latest item was removed and still have direct media,
+     * call {@link Node#setDirectLatest} (eg: from a `LIMIT 1` query) before {@link #finishUpdate()}
+     */
+    public List<Node> getDirtyDirectNodes() {
+        List<Node> nodes = new ArrayList<>();
+        for (Node node : dirtyDirect) {
+            if (!node.detached && node.directCount > 0) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Re-resolve the covers that pointed to removed items, deepest folders first
+     * so a parent sees the already resolved covers of its children
+     */
+    public void finishUpdate() {
+        List<Node> nodes = new ArrayList<>(dirtyCovers.size());
+        for (Node node : dirtyCovers) {
+            if (!node.detached) {
+                nodes.add(node);
+            }
+        }
+        nodes.sort((a, b) -> Integer.compare(b.depth, a.depth));
+        for (Node node : nodes) {
+            recomputeCover(node);
+        }
+        dirtyCovers.clear();
+        dirtyDirect.clear();
+
+        if (hasDetachedNodes) {
+            leafByRelativePath.values().removeIf(node -> node.detached);
+            hasDetachedNodes = false;
+        }
+    }
+
+    /**
+     * Create the folder beans of the current state, new beans on every call (a published tree may already
+     * be displayed, and DiffUtil compares the old and the new beans)
+     *
+     * @return key = node, every attached folder, parents before children
+     */
+    public Map<Node, MediaFolderBean> publish() {
+        Map<Node, MediaFolderBean> folders = new LinkedHashMap<>(nodesByPath.size() * 4 / 3 + 1);
+        for (Node node : nodesByPath.values()) {
+            MediaFolderBean folder = new MediaFolderBean();
+            folder.bucketId = node.bucketId;
+            folder.bucketName = node.segment;
+            folder.path = node.path;
+            folder.parentPath = node.parent.path;
+            folder.itemCount = node.itemCount;
+            folder.latestDateTaken = node.coverDateTaken;
+            folder.mimeType = node.coverMimeType;
+            folder.coverUri = node.getCoverUri();
+            if (folder.children == null) folder.children = new ArrayList<>();
+
+            folders.put(node, folder);
+            // 父节点先于子节点，children 顺序与字典树一致
+            MediaFolderBean parent = folders.get(node.parent);
+            if (parent != null) {
+                parent.children.add(folder);
+            }
+        }
+        return folders;
+    }
+
+    /**
+     * Top level folder without media (eg: the "Movies" placeholder), kept until an item is removed under it
+     */
+    public Node ensureRootFolder(@NonNull String name) {
+        Node node = root.children.get(name);
+        if (node == null) {
+            node = createChild(root, name, null);
+        }
+        return node;
+    }
+
+    @Nullable
+    public Node getNode(@NonNull String path) {
+        return nodesByPath.get(path);
+    }
+
+    /**
+     * All attached folders, parents before children
+     */
+    public Collection<Node> getNodes() {
+        return nodesByPath.values();
+    }
+
+    /**
+     * Top level folders of a {@link #publish()} result, in insertion order
+     */
+    public List<MediaFolderBean> getRootFolders(@NonNull Map<Node, MediaFolderBean> published) {
+        List<MediaFolderBean> folders = new ArrayList<>(root.children.size());
+        for (Node node : root.children.values()) {
+            MediaFolderBean folder = published.get(node);
+            if (folder != null) {
+                folders.add(folder);
+            }
+        }
+        return folders;
+    }
+
+    private Node leafFor(String relativePath, String bucketId) {
+        Node leaf = leafByRelativePath.get(relativePath);
+        if (leaf != null && !leaf.detached) {
+            return leaf;
+        }
+
+        // 第一次遇到该 relativePath：按 segments 查找（或创建）各级节点
+        Node node = root;
+        int start = 0;
+        int length = relativePath.length();
+        while (start < length) {
+            int end = relativePath.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                String segment = relativePath.substring(start, end);
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = createChild(node, segment, bucketId);
+                }
+                node = child;
+            }
+            start = end + 1;
+        }
+        leafByRelativePath.put(relativePath, node);
+        return node;
+    }
+
+    private Node createChild(Node parent, String segment, String bucketId) {
+        String path = parent == root ? segment : parent.path + "/" + segment;
+
+        Node child = new Node(parent, segment, path, bucketId);
+        parent.children.put(segment, child);
+        nodesByPath.put(path, child);
+        return child;
+    }
+
+    private void detach(Node node) {
+        node.parent.children.remove(node.segment);
+        removeSubtree(node);
+        hasDetachedNodes = true;
+    }
+
+    private void removeSubtree(Node node) {
+        node.detached = true;
+        nodesByPath.remove(node.path);
+        for (Node child : node.children.values()) {
+            removeSubtree(child);
+        }
+    }
+
+    private void recomputeCover(Node node) {
+        node.setCover(-1, 0, 0, null, (byte) 0);
+
+        if (node.directLatestId >= 0 && node.directLatestDateTaken > node.coverDateTaken) {
+            node.setCover(node.directLatestId, node.directLatestDateTaken, node.directLatestDateModified,
+                    node.directLatestMimeType, node.directLatestMediaType);
+        }
+        for (Node child : node.children.values()) {
+            if (child.coverDateTaken > node.coverDateTaken) {
+                node.setCover(child.coverId, child.coverDateTaken, child.coverDateModified,
+                        child.coverMimeType, child.coverMediaType);
+            }
+        }
+    }
+
+    /**
+     * One folder
+     */
+    public static final class Node {
+        final Node parent;
+        final String segment;
+        /**
+         * eg: "DCIM/Camera", same as folder.path
+         */
+        final String path;
+        final int depth;
+        /**
+         * key = segment, insertion order
+         */
+        final Map<String, Node> children = new LinkedHashMap<>();
+        /**
+         * bucket of the first row seen in this folder, null for a placeholder
+         */
+        final String bucketId;
+
+        /**
+         * media in the whole subtree, newest one is the cover
+         */
+        int itemCount;
+        long coverId = -1;
+        long coverDateTaken;
+        long coverDateModified;
+        String coverMimeType;
+        byte coverMediaType;
+        private Uri coverUri;
+
+        /**
+         * media directly in this folder, sub folders excluded
+         */
+        int directCount;
+        long directLatestId = -1;
+        long directLatestDateTaken;
+        long directLatestDateModified;
+        String directLatestMimeType;
+        byte directLatestMediaType;
+
+        boolean detached;
+
+        Node(Node parent, String segment, String path, String bucketId) {
+            this.parent = parent;
+            this.segment = segment;
+            this.path = path;
+            this.bucketId = bucketId;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        }
+
+        void setCover(long id, long dateTaken, long dateModified, String mimeType, byte mediaType) {
+            if (coverId != id) {
+                coverUri = null;
+            }
+            coverId = id;
+            coverDateTaken = dateTaken;
+            coverDateModified = dateModified;
+            coverMimeType = mimeType;
+            coverMediaType = mediaType;
+        }
+
+        /**
+         * @param id -1: no direct media
+         */
+        void setDirectLatest(long id, long dateTaken, long dateModified, String mimeType, byte mediaType) {
+            directLatestId = id;
+            directLatestDateTaken = dateTaken;
+            directLatestDateModified = dateModified;
+            directLatestMimeType = mimeType;
+            directLatestMediaType = mediaType;
+        }
+
+        @Nullable
+        Uri getCoverUri() {
+            if (coverUri == null && coverId >= 0) {
+                coverUri = MediaPathIndex.buildUri(coverId, coverMediaType);
+            }
+            return coverUri;
+        }
+
+        @Nullable
+        Uri getDirectLatestUri() {
+            return directLatestId < 0 ? null : MediaPathIndex.buildUri(directLatestId, directLatestMediaType);
+        }
+    }
+}
@@ -0,0 +1,519 @@
+
+/**
+ * 本地媒体索引（SQLite），供相册筛选栏的多条件筛选使用，避免每个筛选都全量查询 MediaStore
+ * <p>
+ * One row per image / video with the columns queryMediaItems already projects (IS_FAVORITE, GENRE, ORIENTATION,
+ * SIZE, WIDTH, HEIGHT, DURATION ...) plus the EXIF fields of {@link MediaMetadataExtractor}, with secondary indexes
+ * on the filter columns. {@link #sync(Context)} keeps it aligned with MediaStore incrementally (generation on
+ * api 30+, same approach as the album folder sync), {@link #query(MediaFilter)} answers a filter such as
+ * "favorite 4K videos over 1 min in DCIM" from the local indexes.
+ * <p>
+ * Plain SQLiteOpenHelper: the module has no Room dependency. Call from a background thread.
+ */
+public final class MediaIndexDatabase extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "gallery_media_index.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE_MEDIA = "media";
+    private static final String TABLE_SYNC = "sync_state";
+
+    /**
+     * key of the MediaStore version row in sync_state, other rows are volume names
+     */
+    private static final String SYNC_KEY_VERSION = "#version";
+
+    private static final String[] SOURCE_PROJECTION = new String[]{
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Files.FileColumns.MEDIA_TYPE,
+            MediaStore.Files.FileColumns.BUCKET_ID,
+            MediaStore.Files.FileColumns.BUCKET_DISPLAY_NAME,
+            MediaStore.Files.FileColumns.RELATIVE_PATH,
+            MediaStore.Files.FileColumns.DATA,
+            MediaStore.Files.FileColumns.MIME_TYPE,
+            MediaStore.Files.FileColumns.DATE_TAKEN,
+            MediaStore.Files.FileColumns.DATE_MODIFIED,
+            MediaStore.Files.FileColumns.SIZE,
+            MediaStore.Files.FileColumns.WIDTH,
+            MediaStore.Files.FileColumns.HEIGHT,
+            MediaStore.Files.FileColumns.DURATION,
+            MediaStore.Files.FileColumns.IS_FAVORITE,
+            MediaStore.Files.FileColumns.GENRE,
+            MediaStore.Files.FileColumns.ORIENTATION
+    };
+
+    /**
+     * columns of {@link #TABLE_MEDIA} in the order of {@link #SOURCE_PROJECTION}
+     */
+    private static final String[] MEDIA_COLUMNS = new String[]{
+            "id", "media_type", "bucket_id", "bucket_name", "relative_path", "file_path", "mime_type",
+            "date_taken", "date_modified", "size", "width", "height", "duration", "is_favorite", "genre", "orientation"
+    };
+
+    /**
+     * {@link #MEDIA_COLUMNS} + EXIF, read by {@link #query(MediaFilter)}
+     */
+    private static final String[] QUERY_COLUMNS = new String[]{
+            "id", "media_type", "bucket_id", "bucket_name", "relative_path", "file_path", "mime_type",
+            "date_taken", "date_modified", "size", "width", "height", "duration", "is_favorite", "genre", "orientation",
+            "file_type", "rating", "photo_style"
+    };
+
+    private static final String SOURCE_SELECTION = MediaStore.Files.FileColumns.MEDIA_TYPE + " IN ("
+            + MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE + "," + MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO + ")";
+
+    private static volatile MediaIndexDatabase instance;
+
+    private volatile boolean synced;
+
+    public static MediaIndexDatabase getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MediaIndexDatabase.class) {
+                if (instance == null) {
+                    instance = new MediaIndexDatabase(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private MediaIndexDatabase(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MEDIA + " ("
+                + "id INTEGER PRIMARY KEY, "
+                + "media_type INTEGER NOT NULL, "
+                + "bucket_id TEXT, "
+                + "bucket_name TEXT, "
+                + "relative_path TEXT, "
+                + "file_path TEXT, "
+                + "mime_type TEXT, "
+                + "date_taken INTEGER, "
+                + "date_modified INTEGER, "
+                + "size INTEGER, "
+                + "width INTEGER, "
+                + "height INTEGER, "
+                + "duration INTEGER, "
+                + "is_favorite INTEGER, "
+                + "genre TEXT, "
+                + "orientation INTEGER, "
+                // EXIF, filled by MediaMetadataExtractor
+                + "file_type INTEGER, "
+                + "rating INTEGER, "
+                + "photo_style TEXT)");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC + " (key TEXT PRIMARY KEY, value TEXT)");
+
+        // 每个筛选列一个索引，都带上 date_taken 使结果按时间排序时不再额外排序
+        String[] indexedColumns = new String[]{
+                "bucket_id", "relative_path", "media_type", "is_favorite", "genre", "orientation",
+                "size", "width", "height", "duration", "rating", "photo_style"
+        };
+        for (String column : indexedColumns) {
+            db.execSQL("CREATE INDEX idx_media_" + column + " ON " + TABLE_MEDIA
+                    + " (" + column + ", date_taken DESC)");
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // 仅为 MediaStore 的索引，重建后全量同步
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEDIA);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC);
+        onCreate(db);
+    }
+
+    // region [Sync]
+
+    /**
+     * Align the index with MediaStore: rows changed since the stored generation on api 30+,
+     * a full rescan on first use, after a MediaStore version / volume change, or below api 30
+     * <p>
+     * Costs a provider query, call it once at startup and after MediaStore changes (not per filter),
+     * on a background lane. {@link #query(MediaFilter)} only reads the index.
+     */
+    public synchronized void sync(Context context) {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            Map<String, String> syncState = readSyncState(db);
+            if (!(Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && syncIncremental(context, db, syncState))) {
+                rescan(context, db);
+            }
+            synced = true;
+        } catch (SecurityException | SQLiteException e) {
+            // 索引同步失败不影响相册，下次变更时重试
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return true if the index was synced at least once (also by an earlier app start)
+     */
+    public boolean isSynced() {
+        if (!synced) {
+            try {
+                synced = DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_SYNC) > 0;
+            } catch (SQLiteException e) {
+                e.printStackTrace();
+            }
+        }
+        return synced;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private boolean syncIncremental(Context context, SQLiteDatabase db, Map<String, String> syncState) {
+        if (!MediaStore.getVersion(context).equals(syncState.get(SYNC_KEY_VERSION))) {
+            return false;
+        }
+        Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+        if (volumes.size() != syncState.size() - 1 || !syncState.keySet().containsAll(volumes)) {
+            return false;
+        }
+
+        db.beginTransaction();
+        try {
+            for (String volume : volumes) {
+                long syncedGeneration = Long.parseLong(syncState.get(volume));
+                long generation = MediaStore.getGeneration(context, volume);
+                if (generation == syncedGeneration) continue;
+
+                String selection = SOURCE_SELECTION + " AND " + MediaStore.MediaColumns.GENERATION_MODIFIED + ">?";
+                copyRows(context, db, MediaStore.Files.getContentUri(volume), selection,
+                        new String[]{String.valueOf(syncedGeneration)});
+                writeSyncState(db, volume, String.valueOf(generation));
+            }
+            removeDeletedRows(context, db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return true;
+    }
+
+    private void rescan(Context context, SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            // 不清空 media：upsert 保留未变化行的 EXIF 列
+            db.delete(TABLE_SYNC, null, null);
+            // 先记录 generation，扫描期间的变更下次同步再处理一次（api < 30 只记录已同步）
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+                writeSyncState(db, SYNC_KEY_VERSION, "");
+            } else {
+                writeSyncState(db, SYNC_KEY_VERSION, MediaStore.getVersion(context));
+                for (String volume : MediaStore.getExternalVolumeNames(context)) {
+                    writeSyncState(db, volume, String.valueOf(MediaStore.getGeneration(context, volume)));
+                }
+            }
+            copyRows(context, db, MediaStore.Files.getContentUri("external"), SOURCE_SELECTION, null);
+            removeDeletedRows(context, db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Upsert the MediaStore rows, EXIF columns of a row with the same date_modified are kept
+     * <p>
+     * UPDATE then INSERT when no row matched: INSERT ... ON CONFLICT DO UPDATE needs SQLite 3.24 (api 30+).
+     * Both statements use numbered parameters ?1 .. ?n in {@link #MEDIA_COLUMNS} order, bound the same way.
+     */
+    private void copyRows(Context context, SQLiteDatabase db, Uri uri, String selection, String[] selectionArgs) {
+        SQLiteStatement update = db.compileStatement(buildUpdateSql());
+        SQLiteStatement insert = db.compileStatement(buildInsertSql());
+        try (Cursor cursor = context.getContentResolver().query(uri, SOURCE_PROJECTION, selection, selectionArgs, null)) {
+            if (cursor == null) return;
+            while (cursor.moveToNext()) {
+                bindRow(update, cursor);
+                if (update.executeUpdateDelete() == 0) {
+                    bindRow(insert, cursor);
+                    insert.executeInsert();
+                }
+            }
+        } finally {
+            update.close();
+            insert.close();
+        }
+    }
+
+    private static void bindRow(SQLiteStatement statement, Cursor cursor) {
+        statement.clearBindings();
+        for (int i = 0; i < MEDIA_COLUMNS.length; i++) {
+            int parameter = i + 1;
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    statement.bindLong(parameter, cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_NULL:
+                    statement.bindNull(parameter);
+                    break;
+                default:
+                    statement.bindString(parameter, cursor.getString(i));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * INSERT INTO media (id, media_type, ...) VALUES (?1, ?2, ...)
+     */
+    private static String buildInsertSql() {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < MEDIA_COLUMNS.length; i++) {
+            if (i > 0) values.append(',');
+            values.append('?').append(i + 1);
+        }
+        return "INSERT INTO " + TABLE_MEDIA + " (" + TextUtils.join(",", MEDIA_COLUMNS) + ") VALUES (" + values + ")";
+    }
+
+    /**
+     * UPDATE media SET media_type = ?2, ... WHERE id = ?1, the EXIF columns are cleared when date_modified changed
+     * (the right hand sides see the old row)
+     */
+    private static String buildUpdateSql() {
+        StringBuilder builder = new StringBuilder("UPDATE " + TABLE_MEDIA + " SET ");
+        int dateModifiedParameter = 0;
+        for (int i = 1; i < MEDIA_COLUMNS.length; i++) {
+            if (i > 1) builder.append(", ");
+            builder.append(MEDIA_COLUMNS[i]).append(" = ?").append(i + 1);
+            if (MEDIA_COLUMNS[i].equals("date_modified")) {
+                dateModifiedParameter = i + 1;
+            }
+        }
+        for (String exifColumn : new String[]{"file_type", "rating", "photo_style"}) {
+            builder.append(", ").append(exifColumn)
+                    .append(" = CASE WHEN date_modified = ?").append(dateModifiedParameter)
+                    .append(" THEN ").append(exifColumn).append(" END");
+        }
+        return builder.append(" WHERE id = ?1").toString();
+    }
+
+    /**
+     * Deletions are not reported by generation: compare the counts, diff the ids only when they differ
+     */
+    private void removeDeletedRows(Context context, SQLiteDatabase db) {
+        try (Cursor source = context.getContentResolver().query(MediaStore.Files.getContentUri("external"),
+                new String[]{MediaStore.Files.FileColumns._ID}, SOURCE_SELECTION, null, null)) {
+            if (source == null) return;
+            if (source.getCount() == DatabaseUtils.queryNumEntries(db, TABLE_MEDIA)) return;
+
+            long[] sourceIds = new long[source.getCount()];
+            int size = 0;
+            while (source.moveToNext() && size < sourceIds.length) {
+                sourceIds[size++] = source.getLong(0);
+            }
+            Arrays.sort(sourceIds, 0, size);
+
+            SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_MEDIA + " WHERE id=?");
+            try (Cursor local = db.query(TABLE_MEDIA, new String[]{"id"}, null, null, null, null, null)) {
+                while (local.moveToNext()) {
+                    long id = local.getLong(0);
+                    if (Arrays.binarySearch(sourceIds, 0, size, id) < 0) {
+                        delete.bindLong(1, id);
+                        delete.executeUpdateDelete();
+                    }
+                }
+            } finally {
+                delete.close();
+            }
+        }
+    }
+
+    private static Map<String, String> readSyncState(SQLiteDatabase db) {
+        Map<String, String> state = new HashMap<>();
+        try (Cursor cursor = db.query(TABLE_SYNC, new String[]{"key", "value"}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                state.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        return state;
+    }
+
+    private static void writeSyncState(SQLiteDatabase db, String key, String value) {
+        ContentValues values = new ContentValues();
+        values.put("key", key);
+        values.put("value", value);
+        db.insertWithOnConflict(TABLE_SYNC, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    // endregion
+
+    // region [EXIF]
+
+    /**
+     * @return the stored EXIF fields, null if not extracted yet or extracted for another date_modified
+     */
+    @Nullable
+    MediaMetadataExtractor.Metadata queryMetadata(long id, long dateModified) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MEDIA,
+                new String[]{"file_type", "rating", "photo_style"},
+                "id=? AND date_modified=? AND file_type IS NOT NULL",
+                new String[]{String.valueOf(id), String.valueOf(dateModified)},
+                null, null, null)) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            MediaMetadataExtractor.Metadata metadata = new MediaMetadataExtractor.Metadata();
+            metadata.dateModified = dateModified;
+            metadata.fileType = cursor.getInt(0);
+            metadata.fileRating = cursor.getInt(1);
+            metadata.photoStyle = cursor.getString(2);
+            return metadata;
+        }
+    }
+
+    /**
+     * Store the EXIF fields read by {@link MediaMetadataExtractor}, ignored if the row is not synced yet
+     * or changed since
+     */
+    void updateMetadata(long id, @NonNull MediaMetadataExtractor.Metadata metadata) {
+        ContentValues values = new ContentValues();
+        values.put("file_type", metadata.fileType);
+        values.put("rating", metadata.fileRating);
+        values.put("photo_style", metadata.photoStyle);
+        getWritableDatabase().update(TABLE_MEDIA, values, "id=? AND date_modified=?",
+                new String[]{String.valueOf(id), String.valueOf(metadata.dateModified)});
+    }
+
+    // endregion
+
+    // region [Query]
+
+    /**
+     * Items matching the filter, DATE_TAKEN DESC, _ID DESC, with the stored EXIF fields
+     */
+    public List<MediaItemBean> query(@NonNull MediaFilter filter) {
+        String limit = filter.limit > 0 ? filter.offset + "," + filter.limit : null;
+        return queryItems(filter.selection(), filter.selectionArgs(), limit);
+    }
+
+    public long count(@NonNull MediaFilter filter) {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_MEDIA, filter.selection(), filter.selectionArgs());
+    }
+
+    /**
+     * Items matching the non-EXIF conditions of the filter whose EXIF was not extracted yet,
+     * for {@link MediaMetadataExtractor#requestForFilter}. Empty if the filter has no EXIF condition.
+     *
+     * @param limit max items, newest first
+     */
+    public List<MediaItemBean> queryMissingMetadata(@NonNull MediaFilter filter, int limit) {
+        if (!filter.needsMetadata()) {
+            return new ArrayList<>();
+        }
+        String selection = filter.selectionWithoutMetadata();
+        selection = selection == null ? "file_type IS NULL" : "(" + selection + ") AND file_type IS NULL";
+        return queryItems(selection, filter.selectionArgsWithoutMetadata(), String.valueOf(limit));
+    }
+
+    private List<MediaItemBean> queryItems(String selection, String[] selectionArgs, String limit) {
+        List<MediaItemBean> items = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MEDIA, QUERY_COLUMNS,
+                selection, selectionArgs, null, null, "date_taken DESC, id DESC", limit)) {
+            while (cursor.moveToNext()) {
+                items.add(readItem(cursor));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Count and newest item per bucket, eg: the special folders
+     */
+    public List<FolderAggregate> aggregateByBucket() {
+        return aggregate("bucket_id");
+    }
+
+    /**
+     * Count and newest item per relative path, the leaves of the album folder tree
+     */
+    public List<FolderAggregate> aggregateByRelativePath() {
+        return aggregate("relative_path");
+    }
+
+    /**
+     * One row per group instead of one per media. With a single MAX() SQLite takes the bare columns
+     * (id, mime_type ...) from the row holding the max, so they are those of the cover.
+     */
+    private List<FolderAggregate> aggregate(String groupBy) {
+        List<FolderAggregate> aggregates = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MEDIA,
+                new String[]{"bucket_id", "bucket_name", "relative_path", "COUNT(*)", "MAX(date_taken)",
+                        "id", "date_modified", "mime_type", "media_type"},
+                groupBy + " IS NOT NULL", null, groupBy, null, null)) {
+            while (cursor.moveToNext()) {
+                aggregates.add(new FolderAggregate(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getInt(3), cursor.getLong(4), cursor.getLong(5), cursor.getLong(6),
+                        cursor.getString(7), (byte) cursor.getInt(8)));
+            }
+        } catch (SQLiteException e) {
+            e.printStackTrace();
+        }
+        return aggregates;
+    }
+
+    private static MediaItemBean readItem(Cursor cursor) {
+        long id = cursor.getLong(0);
+        int mediaType = cursor.getInt(1);
+        Uri baseUri = mediaType == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO
+                ? MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+                : MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        MediaItemBean item = new MediaItemBean(id, cursor.getString(2), cursor.getString(3),
+                ContentUris.withAppendedId(baseUri, id), cursor.getString(6),
+                cursor.getLong(7), cursor.getLong(8), cursor.getLong(9),
+                cursor.getInt(10), cursor.getInt(11), cursor.getInt(12));
+        item.filePath = cursor.getString(5);
+        if (!cursor.isNull(16)) {
+            item.fileType = cursor.getInt(16);
+            item.fileRating = cursor.getInt(17);
+            item.photoStyle = cursor.getString(18);
+        }
+        return item;
+    }
+
+    // endregion
+
+    /**
+     * Count and cover of one bucket / relative path, see {@link #aggregateByBucket()}
+     */
+    public static final class FolderAggregate {
+        public final String bucketId;
+        public final String bucketName;
+        /**
+         * as stored by MediaStore, eg: "DCIM/Camera/"
+         */
+        public final String relativePath;
+        public final int count;
+        public final long latestDateTaken;
+        public final long latestId;
+        /**
+         * of the cover item, version of its thumbnail
+         */
+        public final long latestDateModified;
+        public final String latestMimeType;
+        /**
+         * {@link MediaPathIndex#MEDIA_TYPE_IMAGE} / {@link MediaPathIndex#MEDIA_TYPE_VIDEO}
+         */
+        public final byte latestMediaType;
+
+        FolderAggregate(String bucketId, String bucketName, String relativePath, int count,
+                        long latestDateTaken, long latestId, long latestDateModified,
+                        String latestMimeType, byte latestMediaType) {
+            this.bucketId = bucketId;
+            this.bucketName = bucketName;
+            this.relativePath = relativePath;
+            this.count = count;
+            this.latestDateTaken = latestDateTaken;
+            this.latestId = latestId;
+            this.latestDateModified = latestDateModified;
+            this.latestMimeType = latestMimeType;
+            this.latestMediaType = latestMediaType;
+        }
+
+        public Uri getCoverUri() {
+            return MediaPathIndex.buildUri(latestId, latestMediaType);
+        }
+    }
+}
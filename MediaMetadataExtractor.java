@@ -0,0 +1,208 @@
+
+/**
+ * 媒体 EXIF 元数据（fileType / fileRating / photoStyle）的后台按需提取
+ * <p>
+ * Reading EXIF opens the file, so it is not done in the cursor loop of queryMediaItems. Items are queued only
+ * when they are near the viewport ({@link #requestVisible}) or matched by an active filter ({@link #requestForFilter}),
+ * visible items first, on a small bounded pool. Results are written to the {@link MediaItemBean} and stored in
+ * the EXIF columns of {@link MediaIndexDatabase} (keyed by id + date_modified, where rating / photo style filters
+ * read them): an unchanged file is never parsed twice, also across app starts. An item the index has not synced
+ * yet is only kept in memory until then.
+ * <p>
+ * Listener callbacks are delivered on the main thread (eg: notifyItemChangedByKey with a payload).
+ */
+public final class MediaMetadataExtractor {
+
+    public interface Listener {
+        void onMetadataLoaded(@NonNull MediaItemBean item);
+    }
+
+    private static final int DEFAULT_THREADS = 2;
+    private static final int MEMORY_CACHE_SIZE = 2000;
+
+    private static final String LEGACY_DB_NAME = "gallery_metadata.db";
+
+    private static final int PRIORITY_VISIBLE = 0;
+    private static final int PRIORITY_FILTER = 1;
+
+    /**
+     * isExistExifInfo stores the read photo style in the application object, getPhotoStyleKey reads it back:
+     * that pair must not interleave between threads
+     */
+    private static final Object PHOTO_STYLE_LOCK = new Object();
+
+    private final MediaIndexDatabase mediaIndex;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * key = media id, queued / running tasks
+     */
+    private final Map<Long, Task> tasks = new ConcurrentHashMap<>();
+    private final LruCache<Long, Metadata> memoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+
+    public MediaMetadataExtractor(Context context) {
+        this(context, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param threads parallel file reads
+     */
+    public MediaMetadataExtractor(Context context, int threads) {
+        this.mediaIndex = MediaIndexDatabase.getInstance(context);
+        // 旧版本的独立缓存库，EXIF 现在只存于媒体索引
+        context.getApplicationContext().deleteDatabase(LEGACY_DB_NAME);
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "gallery-metadata");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Items near the viewport. Visible requests not started yet that are not in items are dropped (scrolled away).
+     */
+    public void requestVisible(@NonNull List<MediaItemBean> items, @NonNull Listener listener) {
+        Set<Long> ids = new HashSet<>();
+        for (MediaItemBean item : items) {
+            ids.add(item.id);
+        }
+        for (Task task : tasks.values()) {
+            if (task.priority == PRIORITY_VISIBLE && !ids.contains(task.item.id) && executor.remove(task)) {
+                tasks.remove(task.item.id, task);
+            }
+        }
+        enqueue(items, PRIORITY_VISIBLE, listener);
+    }
+
+    /**
+     * Items an active filter (eg: rating, photo style) needs, after the visible ones
+     */
+    public void requestForFilter(@NonNull List<MediaItemBean> items, @NonNull Listener listener) {
+        enqueue(items, PRIORITY_FILTER, listener);
+    }
+
+    /**
+     * @return true if the metadata of the item is already filled in
+     */
+    public boolean applyCached(@NonNull MediaItemBean item) {
+        Metadata metadata = memoryCache.get(item.id);
+        if (metadata == null || metadata.dateModified != item.dateModified) {
+            return false;
+        }
+        metadata.applyTo(item);
+        return true;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        tasks.clear();
+    }
+
+    private void enqueue(List<MediaItemBean> items, int priority, Listener listener) {
+        for (MediaItemBean item : items) {
+            if (applyCached(item)) continue;
+
+            Task existing = tasks.get(item.id);
+            if (existing != null && existing.priority <= priority) continue;
+            if (existing != null && executor.remove(existing)) {
+                // 提升优先级：重新排队
+                tasks.remove(item.id, existing);
+            } else if (existing != null) {
+                continue;
+            }
+            Task task = new Task(item, priority, sequence.getAndIncrement(), listener);
+            tasks.put(item.id, task);
+            executor.execute(task);
+        }
+    }
+
+    private void extract(Task task) {
+        MediaItemBean item = task.item;
+        try {
+            Metadata metadata = mediaIndex.queryMetadata(item.id, item.dateModified);
+            if (metadata == null) {
+                metadata = readMetadata(item);
+                mediaIndex.updateMetadata(item.id, metadata);
+            }
+            memoryCache.put(item.id, metadata);
+            Metadata result = metadata;
+            mainHandler.post(() -> {
+                result.applyTo(item);
+                task.listener.onMetadataLoaded(item);
+            });
+        } catch (RuntimeException e) {
+            // 单个文件读取失败不影响其他（含 SQLiteException）
+            e.printStackTrace();
+        } finally {
+            tasks.remove(item.id, task);
+        }
+    }
+
+    /**
+     * The EXIF block that used to be commented out in queryMediaItems
+     */
+    private static Metadata readMetadata(MediaItemBean item) {
+        Metadata metadata = new Metadata();
+        metadata.dateModified = item.dateModified;
+        // fileType
+        metadata.fileType = AppUtilManager.getFileTypeIndex(item.mimeType);
+        // rating
+        metadata.fileRating = FileUtilManager.getInstance().getRating(metadata.fileType, item.filePath);
+        // exif photoStyle
+        synchronized (PHOTO_STYLE_LOCK) {
+            if (AppUtilManager.isExistExifInfo(item.filePath, metadata.fileType)) {
+                metadata.photoStyle = AppUtilManager.getPhotoStyleKey(LlcApplication.getContext().photoStyle,
+                        LlcApplication.getContext().modelOriginal);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Ordered by priority, then by request order
+     */
+    private final class Task implements Runnable, Comparable<Task> {
+        final MediaItemBean item;
+        final int priority;
+        final long sequence;
+        final Listener listener;
+
+        Task(MediaItemBean item, int priority, long sequence, Listener listener) {
+            this.item = item;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            extract(this);
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int result = Integer.compare(priority, other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * EXIF fields of one item at one date_modified, stored by {@link MediaIndexDatabase}
+     */
+    static class Metadata {
+        long dateModified;
+        int fileType;
+        int fileRating;
+        String photoStyle;
+
+        void applyTo(MediaItemBean item) {
+            item.fileType = fileType;
+            item.fileRating = fileRating;
+            item.photoStyle = photoStyle;
+        }
+    }
+}
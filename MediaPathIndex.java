@@ -0,0 +1,349 @@
+
+/**
+ * 相册文件夹树使用的媒体索引（列式存储）
+ * <p>
+ * One row per image / video, kept in parallel primitive arrays instead of one object per row:
+ * <pre>
+ * long[] ids, long[] dateTaken, long[] dateModified, int[] bucketIndex / relativePathIndex / mimeTypeIndex, byte[] mediaType
+ * </pre>
+ * bucket id / relative path / mime type are interned in small string tables, a library of 100k items
+ * usually has only a few hundred distinct values. {@link Uri}s are not stored, {@link #getUri(int)} /
+ * {@link #buildUri(long, byte)} create them only for the covers that are actually displayed.
+ * <p>
+ * Removed rows are tombstones until {@link #compactIfNeeded()}, row numbers are only stable in between.
+ * Not thread safe.
+ */
+public final class MediaPathIndex {
+
+    /**
+     * Same values as MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE / MEDIA_TYPE_VIDEO
+     */
+    public static final byte MEDIA_TYPE_IMAGE = 1;
+    public static final byte MEDIA_TYPE_VIDEO = 3;
+    private static final byte MEDIA_TYPE_REMOVED = 0;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] ids;
+    private long[] dateTaken;
+    /**
+     * version of the cover thumbnail, see {@link GalleryThumbnailLoader}
+     */
+    private long[] dateModified;
+    private int[] bucketIndex;
+    private int[] relativePathIndex;
+    private int[] mimeTypeIndex;
+    private byte[] mediaType;
+
+    /**
+     * rows written, removed rows included
+     */
+    private int size;
+    private int liveCount;
+
+    private final StringTable buckets = new StringTable();
+    private final StringTable relativePaths = new StringTable();
+    private final StringTable mimeTypes = new StringTable();
+    private final LongIntMap rowById;
+
+    public MediaPathIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public MediaPathIndex(int capacity) {
+        capacity = Math.max(capacity, 16);
+        ids = new long[capacity];
+        dateTaken = new long[capacity];
+        dateModified = new long[capacity];
+        bucketIndex = new int[capacity];
+        relativePathIndex = new int[capacity];
+        mimeTypeIndex = new int[capacity];
+        mediaType = new byte[capacity];
+        rowById = new LongIntMap(capacity);
+    }
+
+    /**
+     * Add a row, an existing row with the same id is removed first
+     *
+     * @return row
+     */
+    public int add(long id, String bucketId, String relativePath, long dateTaken, long dateModified,
+                   String mimeType, byte mediaType) {
+        int existing = rowById.get(id);
+        if (existing >= 0) {
+            remove(existing);
+        }
+        ensureCapacity(size + 1);
+
+        int row = size++;
+        this.ids[row] = id;
+        this.dateTaken[row] = dateTaken;
+        this.dateModified[row] = dateModified;
+        this.bucketIndex[row] = buckets.intern(bucketId);
+        this.relativePathIndex[row] = relativePaths.intern(relativePath);
+        this.mimeTypeIndex[row] = mimeTypes.intern(mimeType);
+        this.mediaType[row] = mediaType;
+        rowById.put(id, row);
+        liveCount++;
+        return row;
+    }
+
+    /**
+     * Copy a row of another index
+     *
+     * @return row in this index
+     */
+    public int add(MediaPathIndex other, int otherRow) {
+        return add(other.getId(otherRow), other.getBucketId(otherRow), other.getRelativePath(otherRow),
+                other.getDateTaken(otherRow), other.getDateModified(otherRow),
+                other.getMimeType(otherRow), other.getMediaType(otherRow));
+    }
+
+    public void addAll(MediaPathIndex other) {
+        ensureCapacity(size + other.liveCount);
+        for (int row = 0; row < other.size; row++) {
+            if (!other.isRemoved(row)) {
+                add(other, row);
+            }
+        }
+    }
+
+    public void remove(int row) {
+        if (isRemoved(row)) return;
+
+        rowById.remove(ids[row]);
+        mediaType[row] = MEDIA_TYPE_REMOVED;
+        liveCount--;
+    }
+
+    /**
+     * @return row of the id, -1 if not indexed
+     */
+    public int rowOf(long id) {
+        return rowById.get(id);
+    }
+
+    /**
+     * Row count including removed rows, iterate with {@link #isRemoved(int)}
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    public boolean isRemoved(int row) {
+        return mediaType[row] == MEDIA_TYPE_REMOVED;
+    }
+
+    public long getId(int row) {
+        return ids[row];
+    }
+
+    public long getDateTaken(int row) {
+        return dateTaken[row];
+    }
+
+    public long getDateModified(int row) {
+        return dateModified[row];
+    }
+
+    public String getBucketId(int row) {
+        return buckets.get(bucketIndex[row]);
+    }
+
+    /**
+     * Interned: every row of the same relative path returns the same instance
+     */
+    public String getRelativePath(int row) {
+        return relativePaths.get(relativePathIndex[row]);
+    }
+
+    public String getMimeType(int row) {
+        return mimeTypes.get(mimeTypeIndex[row]);
+    }
+
+    public byte getMediaType(int row) {
+        return mediaType[row];
+    }
+
+    public Uri getUri(int row) {
+        return buildUri(ids[row], mediaType[row]);
+    }
+
+    public static Uri buildUri(long id, byte mediaType) {
+        Uri baseUri = mediaType == MEDIA_TYPE_VIDEO
+                ? MediaStore.Video.Media.EXTERNAL_CONTENT_URI
+                : MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        return ContentUris.withAppendedId(baseUri, id);
+    }
+
+    /**
+     * Drop the tombstones once they are more than half of the rows, changes row numbers
+     */
+    public void compactIfNeeded() {
+        int removed = size - liveCount;
+        if (removed < INITIAL_CAPACITY || removed < liveCount) return;
+
+        int target = 0;
+        rowById.clear();
+        for (int row = 0; row < size; row++) {
+            if (isRemoved(row)) continue;
+
+            ids[target] = ids[row];
+            dateTaken[target] = dateTaken[row];
+            dateModified[target] = dateModified[row];
+            bucketIndex[target] = bucketIndex[row];
+            relativePathIndex[target] = relativePathIndex[row];
+            mimeTypeIndex[target] = mimeTypeIndex[row];
+            mediaType[target] = mediaType[row];
+            rowById.put(ids[target], target);
+            target++;
+        }
+        size = target;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) return;
+
+        int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, newCapacity);
+        dateTaken = Arrays.copyOf(dateTaken, newCapacity);
+        dateModified = Arrays.copyOf(dateModified, newCapacity);
+        bucketIndex = Arrays.copyOf(bucketIndex, newCapacity);
+        relativePathIndex = Arrays.copyOf(relativePathIndex, newCapacity);
+        mimeTypeIndex = Arrays.copyOf(mimeTypeIndex, newCapacity);
+        mediaType = Arrays.copyOf(mediaType, newCapacity);
+    }
+
+    /**
+     * Interned strings, index -1 = null
+     */
+    private static final class StringTable {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> indexOf = new HashMap<>();
+
+        int intern(String value) {
+            if (value == null) return -1;
+
+            Integer index = indexOf.get(value);
+            if (index == null) {
+                index = values.size();
+                values.add(value);
+                indexOf.put(value, index);
+            }
+            return index;
+        }
+
+        String get(int index) {
+            return index < 0 ? null : values.get(index);
+        }
+    }
+
+    /**
+     * id → row, open addressing with linear probing, no boxing
+     */
+    private static final class LongIntMap {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys;
+        private int[] values;
+        private int mask;
+        private int size;
+
+        LongIntMap(int expectedSize) {
+            allocate(Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1);
+        }
+
+        int get(long key) {
+            int slot = slot(key);
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) return values[slot];
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                rehash(keys.length << 1);
+            }
+            int slot = slot(key);
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+
+        void remove(long key) {
+            int slot = slot(key);
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    shiftBack(slot);
+                    size--;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+
+        /**
+         * Move the following entries of the probe sequence into the hole, keeps lookups without tombstones
+         */
+        private void shiftBack(int hole) {
+            int slot = hole;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (keys[slot] == EMPTY) break;
+
+                int ideal = slot(keys[slot]);
+                boolean movable = slot > hole
+                        ? (ideal <= hole || ideal > slot)
+                        : (ideal <= hole && ideal > slot);
+                if (movable) {
+                    keys[hole] = keys[slot];
+                    values[hole] = values[slot];
+                    hole = slot;
+                }
+            }
+            keys[hole] = EMPTY;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            mask = capacity - 1;
+            size = 0;
+        }
+
+        private int slot(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
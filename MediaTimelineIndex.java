@@ -0,0 +1,395 @@
+/**
+ * 媒体列表的时间轴索引（按天 / 按月分组），用于日期标题与快速滚动条
+ * <p>
+ * Keeps one count per local day of a list sorted by DATE_TAKEN DESC, in parallel primitive arrays:
+ * <pre>
+ * int[] dayKeys (epoch day, descending), int[] dayCounts
+ * </pre>
+ * Months and the item offsets of every section are prefix sums over the days, recomputed lazily after a change,
+ * so a library of 100k items costs a few thousand ints. It is filled while the cursor is read ({@link #append}),
+ * patched by {@link #insert} / {@link #remove} for MediaStore changes, and answers offset &lt;-&gt; section and
+ * scrubber position &lt;-&gt; offset lookups by binary search, without touching the {@link MediaItemBean}s.
+ * <p>
+ * Not thread safe, publish a {@link #copy()} to other threads.
+ */
+public final class MediaTimelineIndex {
+
+    public enum Granularity {
+        DAY,
+        MONTH
+    }
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final TimeZone timeZone;
+
+    private int[] dayKeys;
+    private int[] dayCounts;
+    private int daySize;
+    private int itemCount;
+
+    /**
+     * prefix sums, valid while !dirty
+     */
+    private int[] dayStarts = new int[0];
+    private int[] monthKeys = new int[0];
+    private int[] monthStarts = new int[0];
+    private int monthSize;
+    private boolean dirty;
+
+    public MediaTimelineIndex() {
+        this(TimeZone.getDefault());
+    }
+
+    public MediaTimelineIndex(@NonNull TimeZone timeZone) {
+        this.timeZone = timeZone;
+        this.dayKeys = new int[INITIAL_CAPACITY];
+        this.dayCounts = new int[INITIAL_CAPACITY];
+    }
+
+    // region [Build]
+
+    /**
+     * Add the next item of a list read in DATE_TAKEN DESC order, O(1)
+     */
+    public void append(long dateTaken) {
+        int day = toEpochDay(dateTaken);
+        if (daySize > 0 && dayKeys[daySize - 1] == day) {
+            dayCounts[daySize - 1]++;
+            itemCount++;
+            dirty = true;
+        } else if (daySize == 0 || dayKeys[daySize - 1] > day) {
+            insertDay(daySize, day);
+        } else {
+            // 顺序不符（eg: 归并前的多个列表），按插入处理
+            insert(dateTaken);
+        }
+    }
+
+    /**
+     * Add an item at its sorted place (eg: a new photo from the media observer)
+     */
+    public void insert(long dateTaken) {
+        int day = toEpochDay(dateTaken);
+        int index = findDay(day);
+        if (index >= 0) {
+            dayCounts[index]++;
+            itemCount++;
+            dirty = true;
+        } else {
+            insertDay(-index - 1, day);
+        }
+    }
+
+    /**
+     * Remove an item, ignored if its day has no item
+     */
+    public void remove(long dateTaken) {
+        int index = findDay(toEpochDay(dateTaken));
+        if (index < 0) return;
+        itemCount--;
+        dirty = true;
+        if (--dayCounts[index] == 0) {
+            System.arraycopy(dayKeys, index + 1, dayKeys, index, daySize - index - 1);
+            System.arraycopy(dayCounts, index + 1, dayCounts, index, daySize - index - 1);
+            daySize--;
+        }
+    }
+
+    @NonNull
+    public MediaTimelineIndex copy() {
+        MediaTimelineIndex copy = new MediaTimelineIndex(timeZone);
+        copy.dayKeys = Arrays.copyOf(dayKeys, Math.max(INITIAL_CAPACITY, daySize));
+        copy.dayCounts = Arrays.copyOf(dayCounts, copy.dayKeys.length);
+        copy.daySize = daySize;
+        copy.itemCount = itemCount;
+        copy.dirty = true;
+        return copy;
+    }
+
+    private void insertDay(int index, int day) {
+        if (daySize == dayKeys.length) {
+            dayKeys = Arrays.copyOf(dayKeys, daySize * 2);
+            dayCounts = Arrays.copyOf(dayCounts, daySize * 2);
+        }
+        System.arraycopy(dayKeys, index, dayKeys, index + 1, daySize - index);
+        System.arraycopy(dayCounts, index, dayCounts, index + 1, daySize - index);
+        dayKeys[index] = day;
+        dayCounts[index] = 1;
+        daySize++;
+        itemCount++;
+        dirty = true;
+    }
+
+    /**
+     * Binary search in the descending day keys
+     *
+     * @return index, or (-(insertion point) - 1)
+     */
+    private int findDay(int day) {
+        int low = 0;
+        int high = daySize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int key = dayKeys[mid];
+            if (key > day) {
+                low = mid + 1;
+            } else if (key < day) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int toEpochDay(long dateTaken) {
+        return (int) Math.floorDiv(dateTaken + timeZone.getOffset(dateTaken), DAY_MS);
+    }
+
+    /**
+     * Recompute the item offsets of the days and the month sections, O(days)
+     */
+    private void ensureSections() {
+        if (!dirty && dayStarts.length >= daySize) return;
+
+        if (dayStarts.length < daySize) {
+            dayStarts = new int[dayKeys.length];
+            monthKeys = new int[dayKeys.length];
+            monthStarts = new int[dayKeys.length];
+        }
+        int offset = 0;
+        monthSize = 0;
+        for (int i = 0; i < daySize; i++) {
+            dayStarts[i] = offset;
+            int month = toMonthKey(dayKeys[i]);
+            if (monthSize == 0 || monthKeys[monthSize - 1] != month) {
+                monthKeys[monthSize] = month;
+                monthStarts[monthSize] = offset;
+                monthSize++;
+            }
+            offset += dayCounts[i];
+        }
+        dirty = false;
+    }
+
+    // endregion
+
+    // region [Query]
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public int getSectionCount(@NonNull Granularity granularity) {
+        ensureSections();
+        return granularity == Granularity.DAY ? daySize : monthSize;
+    }
+
+    /**
+     * @return item offset of the first item of the section
+     */
+    public int getSectionStart(int section, @NonNull Granularity granularity) {
+        ensureSections();
+        return starts(granularity)[section];
+    }
+
+    public int getSectionItemCount(int section, @NonNull Granularity granularity) {
+        int count = getSectionCount(granularity);
+        int end = section + 1 < count ? starts(granularity)[section + 1] : itemCount;
+        return end - starts(granularity)[section];
+    }
+
+    /**
+     * Section containing the item offset, O(log n)
+     */
+    public int getSectionForOffset(int itemOffset, @NonNull Granularity granularity) {
+        int count = getSectionCount(granularity);
+        if (count == 0) return -1;
+        int[] starts = starts(granularity);
+        int low = 0;
+        int high = count - 1;
+        // 最后一个 start <= itemOffset 的分组
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= itemOffset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Map a scrubber position to the item offset to scroll to, O(log n)
+     *
+     * @param fraction 0 (top, newest) .. 1 (bottom, oldest)
+     * @return first item of the section under the scrubber, -1 if empty
+     */
+    public int getOffsetForScrubber(float fraction, @NonNull Granularity granularity) {
+        if (itemCount == 0) return -1;
+        float clamped = Math.max(0f, Math.min(1f, fraction));
+        int itemOffset = Math.min(itemCount - 1, (int) (clamped * itemCount));
+        return getSectionStart(getSectionForOffset(itemOffset, granularity), granularity);
+    }
+
+    /**
+     * Scrubber position of an item offset (eg: to move the thumb while scrolling)
+     */
+    public float getScrubberFraction(int itemOffset) {
+        return itemCount == 0 ? 0f : Math.max(0f, Math.min(1f, itemOffset / (float) itemCount));
+    }
+
+    @Nullable
+    public Section getSection(int section, @NonNull Granularity granularity) {
+        if (section < 0 || section >= getSectionCount(granularity)) return null;
+        int day;
+        if (granularity == Granularity.DAY) {
+            day = dayKeys[section];
+        } else {
+            // 该月最新的一天即该月第一个 day 分组
+            day = dayKeys[getSectionForOffset(monthStarts[section], Granularity.DAY)];
+        }
+        return new Section(granularity, section, getSectionStart(section, granularity),
+                getSectionItemCount(section, granularity), day);
+    }
+
+    private int[] starts(Granularity granularity) {
+        return granularity == Granularity.DAY ? dayStarts : monthStarts;
+    }
+
+    // endregion
+
+    // region [Adapter] 日期标题 + 媒体的混合列表（MultiTypeCommonAdapter）
+
+    /**
+     * Adapter rows with one {@link Section} header before the items of every section, O(n)
+     *
+     * @param items the list this index was built from, same order
+     */
+    @NonNull
+    public List<Object> buildRows(@NonNull List<MediaItemBean> items, @NonNull Granularity granularity) {
+        int count = getSectionCount(granularity);
+        List<Object> rows = new ArrayList<>(items.size() + count);
+        for (int section = 0; section < count; section++) {
+            Section header = getSection(section, granularity);
+            rows.add(header);
+            int end = Math.min(items.size(), header.itemOffset + header.itemCount);
+            rows.addAll(items.subList(Math.min(header.itemOffset, end), end));
+        }
+        return rows;
+    }
+
+    /**
+     * Row of {@link #buildRows} showing the item, O(log n)
+     */
+    public int getAdapterPosition(int itemOffset, @NonNull Granularity granularity) {
+        int section = getSectionForOffset(itemOffset, granularity);
+        return section < 0 ? -1 : itemOffset + section + 1;
+    }
+
+    /**
+     * Item offset of a row of {@link #buildRows}, O(log n)
+     *
+     * @return -1 for a header row
+     */
+    public int getItemOffset(int adapterPosition, @NonNull Granularity granularity) {
+        int count = getSectionCount(granularity);
+        if (count == 0 || adapterPosition < 0) return -1;
+        int[] starts = starts(granularity);
+        int low = 0;
+        int high = count - 1;
+        // 标题行位置 = start + section
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] + mid <= adapterPosition) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int headerPosition = starts[low] + low;
+        return adapterPosition == headerPosition ? -1 : adapterPosition - low - 1;
+    }
+
+    // endregion
+
+    /**
+     * Month key of an epoch day: year * 12 + (month - 1)
+     */
+    private static int toMonthKey(int epochDay) {
+        int[] date = civilFromDays(epochDay);
+        return date[0] * 12 + date[1] - 1;
+    }
+
+    /**
+     * Epoch day -&gt; {year, month 1-12, day 1-31} (proleptic Gregorian), no Calendar allocation per item
+     */
+    private static int[] civilFromDays(int epochDay) {
+        int z = epochDay + 719468;
+        int era = Math.floorDiv(z, 146097);
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return new int[]{year, month, day};
+    }
+
+    /**
+     * Date header row of {@link #buildRows}
+     */
+    public static final class Section {
+        public final Granularity granularity;
+        public final int index;
+        /**
+         * offset of the first item in the media list
+         */
+        public final int itemOffset;
+        public final int itemCount;
+        public final int year;
+        /**
+         * 1 - 12
+         */
+        public final int month;
+        /**
+         * 1 - 31, 1 for a MONTH section
+         */
+        public final int dayOfMonth;
+
+        Section(Granularity granularity, int index, int itemOffset, int itemCount, int epochDay) {
+            this.granularity = granularity;
+            this.index = index;
+            this.itemOffset = itemOffset;
+            this.itemCount = itemCount;
+            int[] date = civilFromDays(epochDay);
+            this.year = date[0];
+            this.month = date[1];
+            this.dayOfMonth = granularity == Granularity.DAY ? date[2] : 1;
+        }
+
+        /**
+         * Stable id of the header (eg: ItemKeyProvider / DiffUtil), does not change with the count
+         */
+        public long getKey() {
+            return ((long) granularity.ordinal() << 32) | (year * 10000L + month * 100L + dayOfMonth);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Section)) return false;
+            Section section = (Section) o;
+            return getKey() == section.getKey() && itemCount == section.itemCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(getKey()) * 31 + itemCount;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.panasonic.jp.lumixlab.controller.fragment.gallery.abs;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.viewbinding.ViewBinding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link CommonAdapter} with one {@link ItemDelegate} per kind of item (eg: date header, photo, video, virtual _CHILD folder)
+ * <p>
+ * A delegate maps an item class (plus an optional {@link ItemDelegate#isForItem} check) to its own binding and
+ * view type. View types are global per delegate class, so RecyclerViews whose adapters register the same delegates
+ * can share one {@link RecyclerView.RecycledViewPool} (see {@link #sizeRecycledViewPool}) and reuse each other's holders.
+ * Clicks of a reused holder go to the adapter it is bound to (see CommonAdapter#onCreateViewHolder).
+ */
+public class MultiTypeCommonAdapter<T> extends CommonAdapter<T, ViewBinding> {
+
+    private static final Map<Class<?>, Integer> VIEW_TYPES = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_VIEW_TYPE = new AtomicInteger(1);
+
+    private final List<ItemDelegate<? extends T, ? extends ViewBinding>> delegates = new ArrayList<>();
+
+    public MultiTypeCommonAdapter() {
+    }
+
+    public MultiTypeCommonAdapter(List<T> dataList) {
+        super(dataList);
+    }
+
+    /**
+     * Register a delegate, the first registered delegate accepting an item binds it
+     */
+    public MultiTypeCommonAdapter<T> register(@NonNull ItemDelegate<? extends T, ? extends ViewBinding> delegate) {
+        delegates.add(delegate);
+        return this;
+    }
+
+    /**
+     * Set the max recycled holders of every registered view type, call for each adapter sharing the pool
+     */
+    public void sizeRecycledViewPool(@NonNull RecyclerView.RecycledViewPool pool) {
+        for (ItemDelegate<? extends T, ? extends ViewBinding> delegate : delegates) {
+            pool.setMaxRecycledViews(delegate.getViewType(), delegate.getMaxRecycledViews());
+        }
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        T item = getItem(position);
+        if (item == null) {
+            return super.getItemViewType(position);
+        }
+        return findDelegate(item).getViewType();
+    }
+
+    @Override
+    protected ViewBinding onCreateBinding(LayoutInflater inflater, ViewGroup parent, int viewType) {
+        return delegateOf(viewType).onCreateBinding(inflater, parent);
+    }
+
+    @Nullable
+    @Override
+    protected View[] onCreateChildClickViews(ViewBinding binding, int viewType) {
+        return delegateOf(viewType).onCreateChildClickViewsUnchecked(binding);
+    }
+
+    @Override
+    protected void onBind(ViewBinding binding, T item, int position, int viewType) {
+        delegateOf(viewType).onBindUnchecked(binding, item, position, null);
+    }
+
+    @Override
+    protected void onBind(ViewBinding binding, T item, int position, int viewType, @NonNull List<Object> payloads) {
+        delegateOf(viewType).onBindUnchecked(binding, item, position, payloads);
+    }
+
+    private ItemDelegate<? extends T, ? extends ViewBinding> findDelegate(T item) {
+        for (ItemDelegate<? extends T, ? extends ViewBinding> delegate : delegates) {
+            if (delegate.accepts(item)) {
+                return delegate;
+            }
+        }
+        throw new IllegalStateException("No delegate registered for " + item.getClass().getName());
+    }
+
+    private ItemDelegate<? extends T, ? extends ViewBinding> delegateOf(int viewType) {
+        for (ItemDelegate<? extends T, ? extends ViewBinding> delegate : delegates) {
+            if (delegate.getViewType() == viewType) {
+                return delegate;
+            }
+        }
+        throw new IllegalStateException("No delegate registered for view type " + viewType);
+    }
+
+    /**
+     * Binding factory and binder of one kind of item
+     *
+     * @param <I>  item class
+     * @param <VB> binding of this kind
+     */
+    public abstract static class ItemDelegate<I, VB extends ViewBinding> {
+        private final Class<I> itemClass;
+        private final int viewType;
+
+        protected ItemDelegate(@NonNull Class<I> itemClass) {
+            this.itemClass = itemClass;
+            this.viewType = VIEW_TYPES.computeIfAbsent(getClass(), c -> NEXT_VIEW_TYPE.getAndIncrement());
+        }
+
+        /**
+         * Same for every instance of the delegate class, in every adapter
+         */
+        public final int getViewType() {
+            return viewType;
+        }
+
+        /**
+         * Holders of this type kept in a (shared) RecycledViewPool, default 10
+         */
+        public int getMaxRecycledViews() {
+            return 10;
+        }
+
+        /**
+         * Further check for items of the same class (eg: photo / video MediaItemBean), default true
+         */
+        protected boolean isForItem(@NonNull I item) {
+            return true;
+        }
+
+        protected abstract VB onCreateBinding(LayoutInflater inflater, ViewGroup parent);
+
+        protected abstract void onBind(VB binding, I item, int position);
+
+        /**
+         * Partial bind, default: full {@link #onBind}
+         */
+        protected void onBind(VB binding, I item, int position, @NonNull List<Object> payloads) {
+            onBind(binding, item, position);
+        }
+
+        /**
+         * Child views dispatched to OnItemChildClickListener, called once per holder
+         */
+        @Nullable
+        protected View[] onCreateChildClickViews(VB binding) {
+            return null;
+        }
+
+        final boolean accepts(Object item) {
+            return itemClass.isInstance(item) && isForItem(itemClass.cast(item));
+        }
+
+        @SuppressWarnings("unchecked")
+        final void onBindUnchecked(ViewBinding binding, Object item, int position, @Nullable List<Object> payloads) {
+            if (payloads == null) {
+                onBind((VB) binding, itemClass.cast(item), position);
+            } else {
+                onBind((VB) binding, itemClass.cast(item), position, payloads);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        final View[] onCreateChildClickViewsUnchecked(ViewBinding binding) {
+            return onCreateChildClickViews((VB) binding);
+        }
+    }
+}
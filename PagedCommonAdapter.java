@@ -0,0 +1,96 @@
+package com.panasonic.jp.lumixlab.controller.fragment.gallery.abs;
+
+import android.annotation.SuppressLint;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.viewbinding.ViewBinding;
+
+/**
+ * {@link CommonAdapter} backed by a {@link WindowedDataSource} instead of the in-memory dataList
+ * <p>
+ * Unloaded positions are bound as placeholders ({@link #onBindPlaceholder}), binding a position loads its
+ * page and the neighbouring pages, loaded pages are rebound with notifyItemRangeChanged.
+ * The dataList methods (setNewDataList / addDataList / deleteItem ...) are not used by this adapter.
+ */
+public abstract class PagedCommonAdapter<T, VB extends ViewBinding> extends CommonAdapter<T, VB>
+        implements WindowedDataSource.Callback {
+
+    private WindowedDataSource<T> dataSource;
+
+    /**
+     * Replace the data source and load it
+     *
+     * @param dataSource null: empty list
+     */
+    @SuppressLint("NotifyDataSetChanged")
+    public void setDataSource(@Nullable WindowedDataSource<T> dataSource) {
+        if (this.dataSource != null) {
+            this.dataSource.setCallback(null);
+        }
+        this.dataSource = dataSource;
+        notifyDataSetChanged();
+        if (dataSource != null) {
+            dataSource.setCallback(this);
+            dataSource.invalidate();
+        }
+    }
+
+    @Nullable
+    public WindowedDataSource<T> getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Bind an unloaded position, eg: an empty grey cell
+     */
+    protected abstract void onBindPlaceholder(VB binding, int position, int viewType);
+
+    @Override
+    public void onBindViewHolder(@NonNull BindingViewHolder holder, int position) {
+        if (getItem(position) == null) {
+            onBindPlaceholder(holder.binding, position, holder.viewType);
+            return;
+        }
+        super.onBindViewHolder(holder, position);
+    }
+
+    /**
+     * @return null while the page of the position is loading
+     */
+    @Nullable
+    @Override
+    protected T getItem(int position) {
+        return dataSource == null ? null : dataSource.get(position);
+    }
+
+    @Nullable
+    @Override
+    protected T peekItem(int position) {
+        return dataSource == null ? null : dataSource.peek(position);
+    }
+
+    /**
+     * dataList is not used: search the loaded pages, an item that is not loaded is not bound either
+     */
+    @Override
+    protected int findPositionByKey(@NonNull ItemKeyProvider<T> provider, long key) {
+        return dataSource == null ? -1 : dataSource.indexOfLoaded(item -> provider.getItemKey(item) == key);
+    }
+
+    @Override
+    public int getItemCount() {
+        return dataSource == null ? 0 : dataSource.size();
+    }
+
+    @SuppressLint("NotifyDataSetChanged")
+    @Override
+    public void onCountChanged(int count) {
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onRangeLoaded(int start, int count) {
+        notifyItemRangeChanged(start, count);
+    }
+}
@@ -0,0 +1,95 @@
+
+/**
+ * 缩略图分辨率档位，由网格列数（{@link GalleryViewModel.ZoomAction}）决定
+ * <p>
+ * Thumbnails are decoded at a tier size instead of the exact cell size: a zoom step that keeps the tier reuses
+ * the cached bitmaps, and a step to another tier can show the nearest cached tier at once
+ * ({@link GalleryThumbnailLoader#loadTiered}). Every tier has its own share of the memory cache, so the many
+ * small thumbnails of a dense grid can not evict the few large ones and the other way around; a share never goes
+ * below one screenful of its tier ({@link #screenfulBytes}), otherwise a scroll in a 1 - 2 column grid evicts the
+ * rows it has just decoded.
+ */
+public enum ThumbnailTier {
+    /**
+     * dense grid, eg: 6+ columns
+     */
+    SMALL(128, 0.15f),
+    MEDIUM(256, 0.35f),
+    LARGE(512, 0.35f),
+    /**
+     * 1 - 2 columns
+     */
+    XLARGE(1024, 0.15f);
+
+    /**
+     * A cell up to 15% larger than a tier still uses it (eg: 540px, 2 columns on a 1080px screen -> 512)
+     */
+    private static final float ROUND_DOWN_TOLERANCE = 0.15f;
+    private static final int BYTES_PER_PIXEL = 4;
+    /**
+     * Densest grid counted for {@link #screenfulBytes}
+     */
+    private static final int MAX_SCREENFUL_COLUMNS = 8;
+
+    /**
+     * decode size, longest side in px
+     */
+    public final int sizePx;
+    /**
+     * share of the memory cache budget
+     */
+    final float memoryShare;
+
+    ThumbnailTier(int sizePx, float memoryShare) {
+        this.sizePx = sizePx;
+        this.memoryShare = memoryShare;
+    }
+
+    /**
+     * Nearest tier for the cell: the smallest tier not smaller than the cell, or the tier below when the cell is
+     * at most {@link #ROUND_DOWN_TOLERANCE} larger than it (upscaled that little, instead of decoding almost twice
+     * the pixels of the next tier)
+     */
+    public static ThumbnailTier forSize(int cellSizePx) {
+        for (ThumbnailTier tier : values()) {
+            if (tier.sizePx * (1 + ROUND_DOWN_TOLERANCE) >= cellSizePx) {
+                return tier;
+            }
+        }
+        return XLARGE;
+    }
+
+    /**
+     * @param columnCount current column count of the grid
+     * @param gridWidthPx grid width without padding
+     */
+    public static ThumbnailTier forColumnCount(int columnCount, int gridWidthPx) {
+        return forSize(gridWidthPx / Math.max(1, columnCount));
+    }
+
+    /**
+     * Bitmap bytes of one screen of this tier: the densest column count (at most {@link #MAX_SCREENFUL_COLUMNS})
+     * whose cells still map to it, one extra row for the partially visible ones, square bitmaps as the upper bound.
+     * 0 if no column count maps to this tier
+     *
+     * @param screenWidthPx grid width, eg: the screen width in portrait
+     */
+    long screenfulBytes(int screenWidthPx, int screenHeightPx) {
+        int columns = 0;
+        for (int count = 1; count <= MAX_SCREENFUL_COLUMNS && screenWidthPx / count > 0; count++) {
+            int cellSizePx = screenWidthPx / count;
+            ThumbnailTier tier = forSize(cellSizePx);
+            if (tier == this) {
+                columns = count;
+            } else if (tier.ordinal() < ordinal()) {
+                break;
+            }
+        }
+        if (columns == 0) {
+            return 0;
+        }
+        int cellSizePx = screenWidthPx / columns;
+        int rows = (screenHeightPx + cellSizePx - 1) / cellSizePx + 1;
+        return (long) columns * rows * sizePx * sizePx * BYTES_PER_PIXEL;
+    }
+}
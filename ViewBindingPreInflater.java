@@ -0,0 +1,84 @@
+package com.panasonic.jp.lumixlab.controller.fragment.gallery.abs;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.viewbinding.ViewBinding;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pool of {@link ViewBinding}s inflated ahead of time on a background thread (AsyncLayoutInflater-style)
+ * <p>
+ * {@link CommonAdapter} and {@link CommonBottomSheetDialogFragment} take a binding from the pool first and only
+ * inflate on the main thread when it is empty. Layouts whose views need the main thread while inflating
+ * (eg: a view creating a Handler) fail in the background, that key then simply falls back to normal inflation.
+ * <p>
+ * Inflated with the context passed to the constructor: use a context with the theme of the target screen.
+ */
+public final class ViewBindingPreInflater {
+
+    public interface BindingFactory<VB extends ViewBinding> {
+        VB inflate(@NonNull LayoutInflater inflater, @Nullable ViewGroup parent);
+    }
+
+    private static final ExecutorService INFLATE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "binding-pre-inflater");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private final LayoutInflater inflater;
+    private final Map<Object, Queue<ViewBinding>> pool = new ConcurrentHashMap<>();
+
+    public ViewBindingPreInflater(@NonNull Context context) {
+        this.inflater = LayoutInflater.from(context).cloneInContext(context);
+    }
+
+    /**
+     * Inflate count bindings of the key in the background
+     *
+     * @param key    eg: the view type of an adapter, the class of a bottom sheet
+     * @param parent layout params parent, not attached to
+     */
+    public <VB extends ViewBinding> void preInflate(@NonNull Object key, int count,
+                                                   @Nullable ViewGroup parent, @NonNull BindingFactory<VB> factory) {
+        Queue<ViewBinding> bindings = pool.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>());
+        INFLATE_EXECUTOR.execute(() -> {
+            for (int i = 0; i < count; i++) {
+                try {
+                    bindings.add(factory.inflate(inflater, parent));
+                } catch (RuntimeException e) {
+                    // 该布局不支持后台 inflate，之后走主线程同步 inflate
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a pre-inflated binding of the key, null if none is ready
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <VB extends ViewBinding> VB obtain(@NonNull Object key) {
+        Queue<ViewBinding> bindings = pool.get(key);
+        return bindings == null ? null : (VB) bindings.poll();
+    }
+
+    /**
+     * Drop the bindings not taken yet
+     */
+    public void clear() {
+        pool.clear();
+    }
+}
@@ -0,0 +1,249 @@
+package com.panasonic.jp.lumixlab.controller.fragment.gallery.abs;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * Windowed, page-loading data source of {@link PagedCommonAdapter}
+ * <p>
+ * Only the pages around the last accessed position are kept in memory: {@link #get(int)} returns null
+ * (placeholder) for a page that is not loaded yet and starts loading it and its neighbours, pages far
+ * away from the window are evicted. Memory stays at about maxPages * pageSize items, whatever the size
+ * of the whole list.
+ * <p>
+ * Main thread only, pages are loaded on the given executor.
+ */
+public final class WindowedDataSource<T> {
+
+    /**
+     * Loads the data, called on the executor
+     */
+    public interface PageLoader<T> {
+        /**
+         * @return total item count
+         */
+        int loadCount();
+
+        /**
+         * @return items [offset, offset + limit), fewer at the end of the list
+         */
+        @NonNull
+        List<T> loadPage(int offset, int limit);
+    }
+
+    public interface Callback {
+        /**
+         * The count was (re)loaded, all positions are invalid
+         */
+        void onCountChanged(int count);
+
+        /**
+         * Placeholders [start, start + count) now have items
+         */
+        void onRangeLoaded(int start, int count);
+    }
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final PageLoader<T> loader;
+    private final Executor executor;
+    private final int pageSize;
+    /**
+     * pages loaded on each side of the accessed page
+     */
+    private final int prefetchPages;
+    private final int maxPages;
+
+    private final SparseArray<List<T>> pages = new SparseArray<>();
+    private final SparseBooleanArray loadingPages = new SparseBooleanArray();
+    private Callback callback;
+    private int count;
+    private volatile int lastAccessedPage;
+    /**
+     * bumped by {@link #invalidate()}, results of older loads are dropped
+     */
+    private volatile int generation;
+
+    private WindowedDataSource(Builder<T> builder) {
+        this.loader = builder.loader;
+        this.executor = builder.executor;
+        this.pageSize = builder.pageSize;
+        this.prefetchPages = builder.prefetchPages;
+        this.maxPages = Math.max(builder.maxPages, prefetchPages * 2 + 1);
+    }
+
+    void setCallback(@Nullable Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Drop every page and reload the count (eg: first load, MediaStore changed)
+     */
+    public void invalidate() {
+        int loadGeneration = ++generation;
+        pages.clear();
+        loadingPages.clear();
+        executor.execute(() -> {
+            int newCount = loader.loadCount();
+            MAIN_HANDLER.post(() -> {
+                if (loadGeneration != generation) return;
+                count = newCount;
+                if (callback != null) {
+                    callback.onCountChanged(newCount);
+                }
+            });
+        });
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return item, null if its page is not loaded yet (the page is loaded, {@link Callback#onRangeLoaded} follows)
+     */
+    @Nullable
+    public T get(int position) {
+        int page = position / pageSize;
+        lastAccessedPage = page;
+
+        // 当前页优先，再向两侧预取
+        loadPage(page);
+        for (int i = 1; i <= prefetchPages; i++) {
+            loadPage(page + i);
+            loadPage(page - i);
+        }
+
+        List<T> items = pages.get(page);
+        int index = position % pageSize;
+        return items == null || index >= items.size() ? null : items.get(index);
+    }
+
+    /**
+     * Loaded item without loading anything or moving the window (eg: prefetch, key lookups)
+     *
+     * @return null if its page is not loaded
+     */
+    @Nullable
+    public T peek(int position) {
+        if (position < 0) return null;
+        List<T> items = pages.get(position / pageSize);
+        int index = position % pageSize;
+        return items == null || index >= items.size() ? null : items.get(index);
+    }
+
+    /**
+     * Position of the first loaded item accepted by the predicate, only the loaded pages are searched
+     *
+     * @return -1 if none
+     */
+    public int indexOfLoaded(@NonNull Predicate<T> predicate) {
+        for (int i = 0; i < pages.size(); i++) {
+            List<T> items = pages.valueAt(i);
+            for (int index = 0; index < items.size(); index++) {
+                if (predicate.test(items.get(index))) {
+                    return pages.keyAt(i) * pageSize + index;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void loadPage(int page) {
+        if (page < 0 || page * pageSize >= count) return;
+        if (pages.get(page) != null || loadingPages.get(page)) return;
+
+        loadingPages.put(page, true);
+        int loadGeneration = generation;
+        executor.execute(() -> {
+            // 加载前已被淘汰出窗口的页不再查询
+            if (loadGeneration != generation || Math.abs(page - lastAccessedPage) > maxPages / 2) {
+                MAIN_HANDLER.post(() -> {
+                    if (loadGeneration == generation) loadingPages.delete(page);
+                });
+                return;
+            }
+            List<T> items = loader.loadPage(page * pageSize, pageSize);
+            MAIN_HANDLER.post(() -> {
+                if (loadGeneration != generation) return;
+                loadingPages.delete(page);
+                pages.put(page, items);
+                evictFarPages();
+                if (callback != null && !items.isEmpty()) {
+                    callback.onRangeLoaded(page * pageSize, items.size());
+                }
+            });
+        });
+    }
+
+    /**
+     * Keep at most maxPages pages, the ones farthest from the accessed page go first
+     */
+    private void evictFarPages() {
+        while (pages.size() > maxPages) {
+            int farthestIndex = 0;
+            int farthestDistance = -1;
+            for (int i = 0; i < pages.size(); i++) {
+                int distance = Math.abs(pages.keyAt(i) - lastAccessedPage);
+                if (distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthestIndex = i;
+                }
+            }
+            pages.removeAt(farthestIndex);
+        }
+    }
+
+    public static class Builder<T> {
+        private final PageLoader<T> loader;
+        private final Executor executor;
+        private int pageSize = 60;
+        private int prefetchPages = 1;
+        private int maxPages = 5;
+
+        /**
+         * @param executor runs the loader, eg: a single background thread
+         */
+        public Builder(@NonNull PageLoader<T> loader, @NonNull Executor executor) {
+            this.loader = loader;
+            this.executor = executor;
+        }
+
+        /**
+         * Items per page, default 60
+         */
+        public Builder<T> pageSize(int pageSize) {
+            this.pageSize = Math.max(1, pageSize);
+            return this;
+        }
+
+        /**
+         * Pages loaded on each side of the accessed page, default 1
+         */
+        public Builder<T> prefetchPages(int prefetchPages) {
+            this.prefetchPages = Math.max(0, prefetchPages);
+            return this;
+        }
+
+        /**
+         * Pages kept in memory, default 5 (at least the prefetch window)
+         */
+        public Builder<T> maxPages(int maxPages) {
+            this.maxPages = maxPages;
+            return this;
+        }
+
+        public WindowedDataSource<T> build() {
+            return new WindowedDataSource<>(this);
+        }
+    }
+}